@@ -43,11 +43,24 @@ public interface UidHolder
      * @return
      */
     static String generateUid(String... components)
+    {
+        return generateUid(hasher, components);
+    }
+
+    /**
+     * Generates a UID using a sequence of strings that will be individually hashed with the provided function and joined.
+     * Note that UIDs are identities: unlike record hashes, changing the function used for an existing dataset amounts to changing the identity of its records.
+     *
+     * @param function
+     * @param components
+     * @return
+     */
+    static String generateUid(LongHashFunction function, String... components)
     {
         var joiner = new StringJoiner("-");
 
         for (String component : components)
-            joiner.add(Long.toHexString(hasher.hashChars(component)));
+            joiner.add(Long.toHexString(function.hashChars(component)));
 
         return joiner.toString();
     }
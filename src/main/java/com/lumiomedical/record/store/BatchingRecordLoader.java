@@ -0,0 +1,173 @@
+package com.lumiomedical.record.store;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.Referential;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BatchingRecordLoader gathers lookups by uid issued concurrently and resolves them with a single list query per referential.
+ *
+ * A batch is dispatched once the time window following its first lookup has elapsed, or as soon as it reaches the maximum batch size.
+ * Lookups for the same uid within a batch share a single record instance.
+ */
+public final class BatchingRecordLoader<R extends Record<R>>
+{
+    private final RecordStore<R> store;
+    private final long windowNanos;
+    private final int maximumBatchSize;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Batch<R>> pending;
+
+    /**
+     *
+     * @param store
+     * @param window The time a batch waits for additional lookups after its first one.
+     * @param maximumBatchSize The number of distinct uids after which a batch is dispatched without waiting for its window.
+     * @param executor The executor used for dispatching batches, its lifecycle remains the caller's responsibility.
+     */
+    public BatchingRecordLoader(RecordStore<R> store, Duration window, int maximumBatchSize, ScheduledExecutorService executor)
+    {
+        if (maximumBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size has to be strictly positive.");
+        this.store = store;
+        this.windowNanos = window.toNanos();
+        this.maximumBatchSize = maximumBatchSize;
+        this.executor = executor;
+        this.pending = new HashMap<>();
+    }
+
+    /**
+     *
+     * @param uid
+     * @return
+     */
+    public CompletableFuture<R> load(String uid)
+    {
+        return this.load(uid, Referential.now());
+    }
+
+    /**
+     *
+     * @param uid
+     * @param referential
+     * @return A future completed with the record, or null if there is none for the provided referential.
+     */
+    public CompletableFuture<R> load(String uid, Referential referential)
+    {
+        String key = referential.toString();
+        Batch<R> full = null;
+        CompletableFuture<R> future;
+
+        synchronized (this) {
+            Batch<R> batch = this.pending.get(key);
+            if (batch == null) {
+                Batch<R> created = new Batch<>(referential);
+                this.pending.put(key, created);
+                this.executor.schedule(() -> this.dispatch(key, created), this.windowNanos, TimeUnit.NANOSECONDS);
+                batch = created;
+            }
+
+            future = batch.futures.computeIfAbsent(uid, u -> new CompletableFuture<>());
+
+            if (batch.futures.size() >= this.maximumBatchSize) {
+                this.pending.remove(key);
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            Batch<R> batch = full;
+            this.executor.execute(() -> this.dispatch(batch));
+        }
+
+        /* Each caller gets its own copy so that completing or cancelling it doesn't affect other callers */
+        return future.copy();
+    }
+
+    /**
+     * A blocking variant of load, for callers that aren't asynchronous themselves.
+     *
+     * @param uid
+     * @param referential
+     * @return
+     */
+    public R find(String uid, Referential referential)
+    {
+        try {
+            return this.load(uid, referential).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Dispatches every pending batch without waiting for their window to elapse.
+     */
+    public void flush()
+    {
+        List<Batch<R>> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(this.pending.values());
+            this.pending.clear();
+        }
+
+        for (Batch<R> batch : batches)
+            this.executor.execute(() -> this.dispatch(batch));
+    }
+
+    /**
+     * Dispatches the provided batch if it is still pending, it may already have been dispatched after reaching the maximum batch size.
+     *
+     * @param key
+     * @param batch
+     */
+    private void dispatch(String key, Batch<R> batch)
+    {
+        synchronized (this) {
+            if (!this.pending.remove(key, batch))
+                return;
+        }
+        this.dispatch(batch);
+    }
+
+    /**
+     *
+     * @param batch
+     */
+    private void dispatch(Batch<R> batch)
+    {
+        try {
+            Map<String, R> records = new HashMap<>();
+            for (R record : this.store.list(batch.futures.keySet(), batch.referential))
+                records.putIfAbsent(record.getUid(), record);
+
+            for (Map.Entry<String, CompletableFuture<R>> entry : batch.futures.entrySet())
+                entry.getValue().complete(records.get(entry.getKey()));
+        }
+        catch (RuntimeException e) {
+            for (CompletableFuture<R> future : batch.futures.values())
+                future.completeExceptionally(e);
+        }
+    }
+
+    private static final class Batch<R>
+    {
+        private final Referential referential;
+        private final Map<String, CompletableFuture<R>> futures;
+
+        private Batch(Referential referential)
+        {
+            this.referential = referential;
+            this.futures = new LinkedHashMap<>();
+        }
+    }
+}
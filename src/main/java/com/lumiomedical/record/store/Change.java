@@ -0,0 +1,69 @@
+package com.lumiomedical.record.store;
+
+/**
+ * A Change describes how a record differs between two instants, see RecordStore.changes.
+ */
+public final class Change
+{
+    private final String uid;
+    private final Kind kind;
+    private final String oldHash;
+    private final String newHash;
+
+    /**
+     *
+     * @param uid
+     * @param kind
+     * @param oldHash
+     * @param newHash
+     */
+    public Change(String uid, Kind kind, String oldHash, String newHash)
+    {
+        this.uid = uid;
+        this.kind = kind;
+        this.oldHash = oldHash;
+        this.newHash = newHash;
+    }
+
+    public String getUid()
+    {
+        return this.uid;
+    }
+
+    public Kind getKind()
+    {
+        return this.kind;
+    }
+
+    /**
+     * @return The hash of the version valid at the start of the range, or null for a CREATED change.
+     */
+    public String getOldHash()
+    {
+        return this.oldHash;
+    }
+
+    /**
+     * @return The hash of the version valid at the end of the range, or null for a CLOSED change.
+     */
+    public String getNewHash()
+    {
+        return this.newHash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Change(uid=" + this.uid + ", kind=" + this.kind + ", oldHash=" + this.oldHash + ", newHash=" + this.newHash + ")";
+    }
+
+    public enum Kind
+    {
+        /* There was no valid version at the start of the range */
+        CREATED,
+        /* The valid versions at the start and end of the range have different hashes */
+        MODIFIED,
+        /* There is no valid version at the end of the range anymore */
+        CLOSED
+    }
+}
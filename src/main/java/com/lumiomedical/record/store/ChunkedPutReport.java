@@ -0,0 +1,142 @@
+package com.lumiomedical.record.store;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The outcome of a put that was split into several chunks, each written in its own transaction.
+ * Writes aren't bound to the session of their transaction, so a failed chunk may have been partially written: its uids are listed so that it can be put again.
+ */
+public final class ChunkedPutReport
+{
+    private final List<Chunk> chunks;
+
+    /**
+     *
+     * @param chunks
+     */
+    public ChunkedPutReport(List<Chunk> chunks)
+    {
+        this.chunks = Collections.unmodifiableList(chunks);
+    }
+
+    public List<Chunk> getChunks()
+    {
+        return this.chunks;
+    }
+
+    /**
+     * @return The chunks that could not be committed.
+     */
+    public List<Chunk> getFailures()
+    {
+        return this.chunks.stream()
+            .filter(Chunk::isFailure)
+            .collect(Collectors.toList());
+    }
+
+    public boolean isSuccessful()
+    {
+        return this.chunks.stream().noneMatch(Chunk::isFailure);
+    }
+
+    /**
+     * @return The sum of the reports of all committed chunks.
+     */
+    public PutReport getReport()
+    {
+        PutReport report = PutReport.empty();
+        for (Chunk chunk : this.chunks)
+        {
+            if (!chunk.isFailure())
+                report = report.add(chunk.getReport());
+        }
+        return report;
+    }
+
+    /**
+     * A chunk holds every item for a given set of uids, no uid ever spans two chunks.
+     */
+    public static final class Chunk
+    {
+        private final int index;
+        private final int size;
+        private final Set<String> uids;
+        private final PutReport report;
+        private final RuntimeException failure;
+
+        /**
+         *
+         * @param index
+         * @param size
+         * @param uids
+         * @param report
+         */
+        public static Chunk success(int index, int size, Set<String> uids, PutReport report)
+        {
+            return new Chunk(index, size, uids, report, null);
+        }
+
+        /**
+         *
+         * @param index
+         * @param size
+         * @param uids
+         * @param failure
+         */
+        public static Chunk failure(int index, int size, Set<String> uids, RuntimeException failure)
+        {
+            return new Chunk(index, size, uids, null, failure);
+        }
+
+        private Chunk(int index, int size, Set<String> uids, PutReport report, RuntimeException failure)
+        {
+            this.index = index;
+            this.size = size;
+            this.uids = Collections.unmodifiableSet(uids);
+            this.report = report;
+            this.failure = failure;
+        }
+
+        public int getIndex()
+        {
+            return this.index;
+        }
+
+        /**
+         * @return The number of items in the chunk.
+         */
+        public int getSize()
+        {
+            return this.size;
+        }
+
+        public Set<String> getUids()
+        {
+            return this.uids;
+        }
+
+        /**
+         * @return The report for the chunk, or null if it failed.
+         */
+        public PutReport getReport()
+        {
+            return this.report;
+        }
+
+        /**
+         * @return The exception the chunk's write failed with, or null if it was committed; a failed chunk may have been partially written.
+         */
+        public RuntimeException getFailure()
+        {
+            return this.failure;
+        }
+
+        public boolean isFailure()
+        {
+            return this.failure != null;
+        }
+    }
+}
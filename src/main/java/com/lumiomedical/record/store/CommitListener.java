@@ -0,0 +1,31 @@
+package com.lumiomedical.record.store;
+
+import com.lumiomedical.record.Record;
+
+import java.util.Collection;
+
+/**
+ * A CommitListener is notified by a store whenever it has written records, or attempted to.
+ */
+public interface CommitListener<R extends Record<R>>
+{
+    /**
+     * Called once a write has been committed.
+     * "Now" referentials are resolved beforehand, each item holds the referential it was actually written at.
+     *
+     * @param items
+     */
+    void onCommit(Collection<Referentialized<R>> items);
+
+    /**
+     * Called once a write has failed.
+     * Writes aren't bound to the session of the transaction they run in, so a failed write may have been partially applied: listeners have to assume any of the provided items may have been written.
+     * By default a failure is handled as a commit, which is what listeners that only invalidate state need.
+     *
+     * @param items
+     */
+    default void onFailure(Collection<Referentialized<R>> items)
+    {
+        this.onCommit(items);
+    }
+}
@@ -0,0 +1,42 @@
+package com.lumiomedical.record.store;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of results from a keyset pagination, along with the token for fetching the next one.
+ */
+public final class Page<R>
+{
+    private final List<R> items;
+    private final String nextToken;
+
+    /**
+     *
+     * @param items
+     * @param nextToken
+     */
+    public Page(List<R> items, String nextToken)
+    {
+        this.items = Collections.unmodifiableList(items);
+        this.nextToken = nextToken;
+    }
+
+    public List<R> getItems()
+    {
+        return this.items;
+    }
+
+    /**
+     * @return An opaque continuation token for fetching the next page, or null if this page is the last one.
+     */
+    public String getNextToken()
+    {
+        return this.nextToken;
+    }
+
+    public boolean hasNext()
+    {
+        return this.nextToken != null;
+    }
+}
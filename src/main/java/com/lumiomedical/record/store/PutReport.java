@@ -0,0 +1,80 @@
+package com.lumiomedical.record.store;
+
+/**
+ * A summary of what a batch put actually did to the store.
+ */
+public final class PutReport
+{
+    private static final PutReport empty = new PutReport(0, 0, 0);
+
+    private final int written;
+    private final int skipped;
+    private final int truncated;
+
+    /**
+     *
+     * @param written
+     * @param skipped
+     * @param truncated
+     */
+    public PutReport(int written, int skipped, int truncated)
+    {
+        this.written = written;
+        this.skipped = skipped;
+        this.truncated = truncated;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static PutReport empty()
+    {
+        return empty;
+    }
+
+    /**
+     * Produces a new report summing the counts of this report and the provided one.
+     *
+     * @param other
+     * @return
+     */
+    public PutReport add(PutReport other)
+    {
+        return new PutReport(
+            this.written + other.written,
+            this.skipped + other.skipped,
+            this.truncated + other.truncated
+        );
+    }
+
+    /**
+     * @return The number of items for which write operations were issued.
+     */
+    public int getWritten()
+    {
+        return this.written;
+    }
+
+    /**
+     * @return The number of items that were left untouched because their currently stored version has the same hash.
+     */
+    public int getSkipped()
+    {
+        return this.skipped;
+    }
+
+    /**
+     * @return The number of previously valid versions that were closed by the written items, only tracked by diff-aware puts.
+     */
+    public int getTruncated()
+    {
+        return this.truncated;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PutReport(written=" + this.written + ", skipped=" + this.skipped + ", truncated=" + this.truncated + ")";
+    }
+}
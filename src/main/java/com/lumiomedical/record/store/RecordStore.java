@@ -2,14 +2,18 @@ package com.lumiomedical.record.store;
 
 import com.lumiomedical.record.Record;
 import com.lumiomedical.record.Referential;
+import com.lumiomedical.record.source.AbstractSource;
 import com.lumiomedical.record.source.Source;
 import com.noleme.store.Store;
 import com.noleme.store.query.Filter;
 import com.noleme.store.query.Query;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * @author Pierre Lecerf (plecerf@lumiomedical.com)
@@ -238,6 +242,111 @@ public interface RecordStore<R extends Record<R>> extends Store<R>
      */
     Map<String, R> map(Query query, Filter filter, Referential referential);
 
+    /**
+     * Finds, for each provided UID, the entity version that was valid at the instant associated with it.
+     *
+     * @param instants The instant at which each entity has to be looked up, by UID.
+     * @return A map of entities by UID, UIDs without a version valid at their instant are absent.
+     */
+    Map<String, R> findAsOf(Map<String, Instant> instants);
+
+    /**
+     * Lists the versions of an entity ordered by validity start, only their validity interval, hash and id are fetched.
+     *
+     * @param uid The entity UID.
+     * @return
+     */
+    List<TimelineEntry<R>> timeline(String uid);
+
+    /**
+     * Lists the versions of several entities ordered by validity start, only their validity interval, hash and id are fetched.
+     *
+     * @param uids The entities UIDs.
+     * @return A map of timelines by UID, UIDs without any version are absent.
+     */
+    Map<String, List<TimelineEntry<R>>> timelines(Collection<String> uids);
+
+    /**
+     * Lists the entities whose valid version differs between the two provided instants.
+     * The stream holds a database cursor and has to be closed.
+     *
+     * @param from
+     * @param to
+     * @return A stream of changes, in no particular order.
+     */
+    Stream<Change> changes(Instant from, Instant to);
+
+    /**
+     * Finds an entity using its UID, only the provided fields (and the version metadata) are fetched.
+     *
+     * @param uid The entity UID.
+     * @param referential
+     * @param fields The fields to fetch, nested fields can be designated with dots.
+     * @return A view over the fetched fields, or null if there is no matching entity.
+     */
+    RecordView findView(String uid, Referential referential, Collection<String> fields);
+
+    /**
+     * Finds a collection of entities using a custom query description, only the provided fields (and the version metadata) are fetched.
+     *
+     * @param query The query description.
+     * @param referential
+     * @param fields The fields to fetch, nested fields can be designated with dots.
+     * @return A collection of views over the fetched fields.
+     */
+    List<RecordView> listView(Query query, Referential referential, Collection<String> fields);
+
+    /**
+     * Streams the entities matching a custom query description, they are decoded lazily as the stream is consumed.
+     * The stream holds a database cursor and has to be closed.
+     *
+     * @param query The query description.
+     * @return A stream over all entities matching the provided query.
+     */
+    Stream<R> stream(Query query);
+
+    /**
+     * Streams the entities matching a custom query description, they are decoded lazily as the stream is consumed.
+     * The stream holds a database cursor and has to be closed.
+     *
+     * @param query The query description.
+     * @param referential
+     * @return A stream over all entities matching the provided query.
+     */
+    Stream<R> stream(Query query, Referential referential);
+
+    /**
+     * Performs the provided action on each entity matching a custom query description, without ever holding more than a cursor batch in memory.
+     *
+     * @param query The query description.
+     * @param referential
+     * @param action
+     */
+    void forEach(Query query, Referential referential, Consumer<R> action);
+
+    /**
+     * Fetches a page of the entities matching a custom query description, ordered by uid and validity start.
+     * Pages are delimited by a continuation token rather than an offset, so each page costs the same regardless of its depth,
+     * and concurrent writes cannot make results shift between pages.
+     *
+     * @param query The query description.
+     * @param size The maximum number of entities in the page.
+     * @param token The token returned with the previous page, or null for the first page.
+     * @return
+     */
+    Page<R> page(Query query, int size, String token);
+
+    /**
+     * Fetches a page of the entities matching a custom query description, ordered by uid and validity start.
+     *
+     * @param query The query description.
+     * @param referential
+     * @param size The maximum number of entities in the page.
+     * @param token The token returned with the previous page, or null for the first page.
+     * @return
+     */
+    Page<R> page(Query query, Referential referential, int size, String token);
+
     /**
      *
      * @param source
@@ -257,6 +366,23 @@ public interface RecordStore<R extends Record<R>> extends Store<R>
      */
     <S> Map<S, String> mapUidBySourceIds(Source<S, R> source, Collection<S> ids, Referential referential);
 
+    /**
+     * Resolves the uids of records matching ids from several sources at once, SourceCollection sources included.
+     *
+     * @param ids Source ids, grouped by source
+     * @return A map of source id to uid, for each of the provided sources
+     */
+    Map<AbstractSource<?, R>, Map<Object, String>> mapUidBySources(Map<AbstractSource<?, R>, ? extends Collection<?>> ids);
+
+    /**
+     * Resolves the uids of records matching ids from several sources at once, SourceCollection sources included.
+     *
+     * @param ids Source ids, grouped by source
+     * @param referential
+     * @return A map of source id to uid, for each of the provided sources
+     */
+    Map<AbstractSource<?, R>, Map<Object, String>> mapUidBySources(Map<AbstractSource<?, R>, ? extends Collection<?>> ids, Referential referential);
+
     /**
      *
      * @param item
@@ -288,4 +414,21 @@ public interface RecordStore<R extends Record<R>> extends Store<R>
      * @param items
      */
     void putAt(Collection<Referentialized<R>> items);
+
+    /**
+     * Inserts the provided items, skipping those whose currently valid version already has the same hash.
+     *
+     * @param items
+     * @return A report of written, skipped and truncated counts.
+     */
+    PutReport putChanged(Collection<R> items);
+
+    /**
+     * Inserts the provided items for the given referential, skipping those whose stored version already covers it with the same hash.
+     *
+     * @param items
+     * @param referential
+     * @return A report of written, skipped and truncated counts.
+     */
+    PutReport putChanged(Collection<R> items, Referential referential);
 }
@@ -0,0 +1,154 @@
+package com.lumiomedical.record.store;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A RecordView exposes a subset of the fields of a stored version, as returned by a projected read.
+ * Fields are left in their stored form: nested documents are maps and arrays are lists, nothing goes through the record factory.
+ * The version metadata is the exception, uid, hash and validity_end are decoded the same way they are for records.
+ */
+public final class RecordView
+{
+    private final String id;
+    private final String uid;
+    private final String hash;
+    private final Instant validityStart;
+    private final Instant validityEnd;
+    private final Map<String, Object> fields;
+
+    /**
+     *
+     * @param id
+     * @param uid
+     * @param hash
+     * @param validityStart
+     * @param validityEnd
+     * @param fields The projected fields of the version
+     */
+    public RecordView(String id, String uid, String hash, Instant validityStart, Instant validityEnd, Map<String, Object> fields)
+    {
+        this.id = id;
+        this.uid = uid;
+        this.hash = hash;
+        this.validityStart = validityStart;
+        this.validityEnd = validityEnd;
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    public String getId()
+    {
+        return this.id;
+    }
+
+    public String getUid()
+    {
+        return this.uid;
+    }
+
+    public String getHash()
+    {
+        return this.hash;
+    }
+
+    public Instant getValidityStart()
+    {
+        return this.validityStart;
+    }
+
+    public Instant getValidityEnd()
+    {
+        return this.validityEnd;
+    }
+
+    /**
+     * Returns the value at the provided path, nested fields being addressed with dots as in the projection (eg. "address.city").
+     * Arrays can be traversed either with an index (eg. "items.0.name") or by name, in which case the path is resolved against each element (eg. "items.name") and the values found are returned as a list.
+     *
+     * @param path
+     * @return The value, or null if it wasn't projected or doesn't exist.
+     */
+    public Object get(String path)
+    {
+        return resolve(this.fields, path.split("\\."), 0);
+    }
+
+    /**
+     *
+     * @param value
+     * @param keys
+     * @param index
+     * @return
+     */
+    private static Object resolve(Object value, String[] keys, int index)
+    {
+        if (index == keys.length)
+            return value;
+
+        if (value instanceof Map)
+            return resolve(((Map<?, ?>) value).get(keys[index]), keys, index + 1);
+
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            if (isIndex(keys[index])) {
+                int position = Integer.parseInt(keys[index]);
+                return position < list.size() ? resolve(list.get(position), keys, index + 1) : null;
+            }
+
+            List<Object> values = new ArrayList<>();
+            for (Object element : list)
+            {
+                Object resolved = resolve(element, keys, index);
+                if (resolved != null)
+                    values.add(resolved);
+            }
+            return values.isEmpty() ? null : values;
+        }
+
+        return null;
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    private static boolean isIndex(String key)
+    {
+        if (key.isEmpty() || key.length() > 9)
+            return false;
+        for (int i = 0 ; i < key.length() ; ++i)
+        {
+            if (!Character.isDigit(key.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param path
+     * @param type
+     * @param <T>
+     * @return
+     * @throws ClassCastException If the value isn't of the provided type.
+     */
+    public <T> T get(String path, Class<T> type)
+    {
+        return type.cast(this.get(path));
+    }
+
+    public Map<String, Object> getFields()
+    {
+        return this.fields;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RecordView(uid=" + this.uid + ", fields=" + this.fields + ")";
+    }
+}
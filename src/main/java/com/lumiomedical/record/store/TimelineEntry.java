@@ -0,0 +1,80 @@
+package com.lumiomedical.record.store;
+
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * A TimelineEntry describes one version in the history of a record, the version itself is only loaded if requested.
+ */
+public final class TimelineEntry<R>
+{
+    private final String id;
+    private final String hash;
+    private final Instant start;
+    private final Instant end;
+    private final Function<String, R> loader;
+    private R record;
+
+    /**
+     *
+     * @param id
+     * @param hash
+     * @param start
+     * @param end
+     * @param loader A function loading a version by id
+     */
+    public TimelineEntry(String id, String hash, Instant start, Instant end, Function<String, R> loader)
+    {
+        this.id = id;
+        this.hash = hash;
+        this.start = start;
+        this.end = end;
+        this.loader = loader;
+    }
+
+    public String getId()
+    {
+        return this.id;
+    }
+
+    public String getHash()
+    {
+        return this.hash;
+    }
+
+    public Instant getStart()
+    {
+        return this.start;
+    }
+
+    /**
+     * @return The end of the version's validity, or null if it is still open.
+     */
+    public Instant getEnd()
+    {
+        return this.end;
+    }
+
+    public boolean isOpen()
+    {
+        return this.end == null;
+    }
+
+    /**
+     * Loads the full version on the first call, subsequent calls return the same instance.
+     *
+     * @return The version, or null if it was removed in the meantime.
+     */
+    public synchronized R load()
+    {
+        if (this.record == null)
+            this.record = this.loader.apply(this.id);
+        return this.record;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TimelineEntry(id=" + this.id + ", hash=" + this.hash + ", start=" + this.start + ", end=" + this.end + ")";
+    }
+}
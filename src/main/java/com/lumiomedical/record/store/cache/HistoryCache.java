@@ -0,0 +1,196 @@
+package com.lumiomedical.record.store.cache;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.Referential;
+import com.lumiomedical.record.store.CommitListener;
+import com.lumiomedical.record.store.Referentialized;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * A HistoryCache holds past versions of records whose validity interval is closed, by uid and validity interval.
+ *
+ * Such a version can only change through a put that touches its interval (a "between" put truncating it, or any put starting at or before its end),
+ * so entries do not expire: a put for a uid only invalidates the cached versions of that uid ending at or after the start of the put.
+ * The number of cached uids is bounded with a least-recently-used eviction.
+ *
+ * As with the RecordCache, records are copied on their way in and out of the cache with the copier provided by the store the cache is attached to,
+ * and writes that do not go through that store (including remove operations) have to be followed by a call to clear.
+ */
+public final class HistoryCache<R extends Record<R>> implements CommitListener<R>
+{
+    private final int maximumSize;
+    private final LinkedHashMap<String, NavigableMap<Instant, R>> timelines;
+    private volatile UnaryOperator<R> copier = UnaryOperator.identity();
+    private long epoch;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     *
+     * @param maximumSize The maximum number of uids for which versions are held by the cache.
+     */
+    public HistoryCache(int maximumSize)
+    {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("The maximum size has to be strictly positive.");
+        this.maximumSize = maximumSize;
+        this.timelines = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     *
+     * @param uid
+     * @param at
+     * @return The cached version valid at the provided instant, or null if there is none.
+     */
+    public synchronized R get(String uid, Instant at)
+    {
+        NavigableMap<Instant, R> timeline = this.timelines.get(uid);
+        Map.Entry<Instant, R> entry = timeline != null ? timeline.floorEntry(at) : null;
+
+        if (entry == null || !at.isBefore(entry.getValue().getValidityEnd())) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return this.copier.apply(entry.getValue());
+    }
+
+    /**
+     * Returns the current invalidation epoch, which has to be read before loading a record and then passed to put.
+     *
+     * @return
+     */
+    public synchronized long epoch()
+    {
+        return this.epoch;
+    }
+
+    /**
+     * Caches a version that was loaded after the provided epoch was read, versions that are still open or end in the future are ignored.
+     * The version is dropped if an invalidation happened in-between, as it may have been read before the corresponding write was committed.
+     *
+     * @param record
+     * @param epoch
+     */
+    public synchronized void put(R record, long epoch)
+    {
+        if (epoch != this.epoch || !isClosed(record))
+            return;
+
+        this.timelines.computeIfAbsent(record.getUid(), uid -> new TreeMap<>()).put(record.getValidityStart(), this.copier.apply(record));
+
+        if (this.timelines.size() > this.maximumSize) {
+            Iterator<Map.Entry<String, NavigableMap<Instant, R>>> iterator = this.timelines.entrySet().iterator();
+            while (this.timelines.size() > this.maximumSize)
+            {
+                iterator.next();
+                iterator.remove();
+                this.evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached versions of the provided uid whose validity ends at or after the provided instant.
+     *
+     * @param uid
+     * @param from
+     */
+    public synchronized void invalidate(String uid, Instant from)
+    {
+        this.epoch++;
+
+        NavigableMap<Instant, R> timeline = this.timelines.get(uid);
+        if (timeline == null)
+            return;
+
+        timeline.values().removeIf(record -> !record.getValidityEnd().isBefore(from));
+        if (timeline.isEmpty())
+            this.timelines.remove(uid);
+    }
+
+    public synchronized void clear()
+    {
+        this.epoch++;
+        this.timelines.clear();
+    }
+
+    /**
+     * Sets the function used for copying records, stores set it when the cache is attached to them.
+     *
+     * @param copier
+     * @return
+     */
+    public HistoryCache<R> setCopier(UnaryOperator<R> copier)
+    {
+        this.copier = copier;
+        return this;
+    }
+
+    @Override
+    public synchronized void onCommit(Collection<Referentialized<R>> items)
+    {
+        for (Referentialized<R> item : items)
+            this.invalidate(item.record.getUid(), start(item.referential));
+    }
+
+    /**
+     *
+     * @param referential
+     * @return The earliest instant a put with the provided referential can affect.
+     */
+    private static Instant start(Referential referential)
+    {
+        if (referential.isAt())
+            return referential.asAt().getAt();
+        else if (referential.isBetween())
+            return referential.asBetween().getFrom();
+        /* Items are committed with resolved referentials, this is only a conservative fallback */
+        return Instant.MIN;
+    }
+
+    /**
+     *
+     * @param record
+     * @return
+     */
+    private static boolean isClosed(Record<?> record)
+    {
+        return record.getUid() != null
+            && record.getValidityStart() != null
+            && record.getValidityEnd() != null
+            && record.getValidityEnd().isBefore(Instant.now());
+    }
+
+    /**
+     * @return The number of cached versions.
+     */
+    public synchronized int size()
+    {
+        int size = 0;
+        for (NavigableMap<Instant, R> timeline : this.timelines.values())
+            size += timeline.size();
+        return size;
+    }
+
+    public synchronized long getHits()
+    {
+        return this.hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return this.evictions;
+    }
+}
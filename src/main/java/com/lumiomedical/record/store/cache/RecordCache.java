@@ -0,0 +1,178 @@
+package com.lumiomedical.record.store.cache;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.store.CommitListener;
+import com.lumiomedical.record.store.Referentialized;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * A RecordCache holds the current version of recently read records, by uid.
+ *
+ * It is bounded in size with a least-recently-used eviction, and each entry expires after a fixed time-to-live.
+ * Writes performed through the store the cache is attached to invalidate the affected uids; the time-to-live bounds the staleness
+ * of anything else (writes from other processes, versions starting in the future, removals).
+ *
+ * Records are copied on their way in and out of the cache, so that callers are free to modify the records they are handed.
+ * The copy is provided by the store the cache is attached to, a cache that isn't attached to any store holds the records it is given as-is.
+ */
+public final class RecordCache<R extends Record<R>> implements CommitListener<R>
+{
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry<R>> entries;
+    private volatile UnaryOperator<R> copier = UnaryOperator.identity();
+    private long epoch;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     *
+     * @param maximumSize The maximum number of records held by the cache.
+     * @param ttl The time after which an entry expires.
+     */
+    public RecordCache(int maximumSize, Duration ttl)
+    {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("The maximum size has to be strictly positive.");
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     *
+     * @param uid
+     * @return The cached record, or null if there is none or it has expired.
+     */
+    public synchronized R get(String uid)
+    {
+        Entry<R> entry = this.entries.get(uid);
+
+        if (entry != null && System.nanoTime() - entry.createdAt > this.ttlNanos) {
+            this.entries.remove(uid);
+            entry = null;
+        }
+
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return this.copier.apply(entry.record);
+    }
+
+    /**
+     * Returns the current invalidation epoch, which has to be read before loading a record and then passed to put.
+     *
+     * @return
+     */
+    public synchronized long epoch()
+    {
+        return this.epoch;
+    }
+
+    /**
+     * Caches a record that was loaded after the provided epoch was read.
+     * The record is dropped if an invalidation happened in-between, as it may have been read before the corresponding write was committed.
+     *
+     * @param uid
+     * @param record
+     * @param epoch
+     */
+    public synchronized void put(String uid, R record, long epoch)
+    {
+        if (epoch != this.epoch)
+            return;
+
+        this.entries.put(uid, new Entry<>(this.copier.apply(record), System.nanoTime()));
+
+        if (this.entries.size() > this.maximumSize) {
+            Iterator<Map.Entry<String, Entry<R>>> iterator = this.entries.entrySet().iterator();
+            while (this.entries.size() > this.maximumSize)
+            {
+                iterator.next();
+                iterator.remove();
+                this.evictions++;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param uids
+     */
+    public synchronized void invalidate(Collection<String> uids)
+    {
+        this.epoch++;
+        for (String uid : uids)
+            this.entries.remove(uid);
+    }
+
+    public synchronized void clear()
+    {
+        this.epoch++;
+        this.entries.clear();
+    }
+
+    @Override
+    public void onCommit(Collection<Referentialized<R>> items)
+    {
+        synchronized (this) {
+            this.epoch++;
+            for (Referentialized<R> item : items)
+                this.entries.remove(item.record.getUid());
+        }
+    }
+
+    /**
+     * Sets the function used for copying records, stores set it when the cache is attached to them.
+     *
+     * @param copier
+     * @return
+     */
+    public RecordCache<R> setCopier(UnaryOperator<R> copier)
+    {
+        this.copier = copier;
+        return this;
+    }
+
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return this.hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return this.evictions;
+    }
+
+    private static final class Entry<R>
+    {
+        private final R record;
+        private final long createdAt;
+
+        private Entry(R record, long createdAt)
+        {
+            this.record = record;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.lumiomedical.record.store.index;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a record field as being queried temporally: record stores will then maintain a compound (field, validity_start, validity_end) index over it.
+ */
+@Target({ ElementType.FIELD })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TemporalIndex
+{
+    /**
+     * The stored name depends on the store's transcriber, which is why it can't be derived from the annotated field.
+     *
+     * @return The path of the field within stored documents
+     */
+    String value();
+}
@@ -0,0 +1,140 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.logging.Logging;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import java.util.*;
+
+/**
+ * A BulkRounds groups write operations so that operations on a given uid are applied in order, while operations on different uids don't have to be.
+ *
+ * In ordered mode, everything goes into a single ordered bulk operation (the historical behaviour).
+ * In unordered mode, the n-th operation of each uid goes into the n-th "round", each round being an unordered bulk operation executed after the previous one completed.
+ * A put usually amounts to 3 or 4 operations per uid, so a batch is executed as 3 or 4 unordered bulks regardless of its size.
+ *
+ * When a round fails, the rounds after it are skipped for every uid: uids whose earlier operations were applied are then left half-written (eg. a removal applied without the upsert that followed it).
+ * Such uids are logged and listed by getIncompleteUids, putting them again restores a consistent history.
+ */
+final class BulkRounds
+{
+    private final DBCollection collection;
+    private final boolean ordered;
+    private final List<BulkWriteOperation> rounds;
+    private final Map<String, Integer> depths;
+    private int failedRound = -1;
+
+    /**
+     *
+     * @param collection
+     * @param ordered
+     */
+    BulkRounds(DBCollection collection, boolean ordered)
+    {
+        this.collection = collection;
+        this.ordered = ordered;
+        this.rounds = new ArrayList<>();
+        this.depths = new HashMap<>();
+    }
+
+    /**
+     *
+     * @param uid The uid the operation applies to
+     * @param query
+     * @return
+     */
+    BulkWriteRequestBuilder find(String uid, DBObject query)
+    {
+        return this.round(uid).find(query);
+    }
+
+    /**
+     *
+     * @param uid The uid the document belongs to
+     * @param document
+     */
+    void insert(String uid, DBObject document)
+    {
+        this.round(uid).insert(document);
+    }
+
+    /**
+     *
+     * @return
+     */
+    boolean isEmpty()
+    {
+        return this.rounds.isEmpty();
+    }
+
+    /**
+     * Executes each round in sequence, a round is only started once the previous one has completed.
+     */
+    void execute()
+    {
+        for (int i = 0 ; i < this.rounds.size() ; ++i)
+        {
+            try {
+                this.rounds.get(i).execute();
+            }
+            catch (MongoException e) {
+                this.failedRound = i;
+                if (i + 1 < this.rounds.size())
+                    Logging.logger.error("Round " + (i + 1) + "/" + this.rounds.size() + " of a bulk on " + this.collection.getName() + " failed, later rounds were skipped for uids " + this.getIncompleteUids());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return The index of the round that failed, or -1 if none did.
+     */
+    int getFailedRound()
+    {
+        return this.failedRound;
+    }
+
+    /**
+     * Lists the uids that had operations in the rounds skipped after a failure, whatever happened to their operations in earlier rounds.
+     *
+     * @return The uids, empty if no round failed.
+     */
+    Set<String> getIncompleteUids()
+    {
+        Set<String> uids = new TreeSet<>();
+        if (this.failedRound < 0)
+            return uids;
+
+        for (Map.Entry<String, Integer> depth : this.depths.entrySet())
+        {
+            if (depth.getValue() > this.failedRound + 1)
+                uids.add(depth.getKey());
+        }
+        return uids;
+    }
+
+    /**
+     *
+     * @param uid
+     * @return
+     */
+    private BulkWriteOperation round(String uid)
+    {
+        int index = this.ordered ? 0 : this.depths.merge(uid, 1, Integer::sum) - 1;
+
+        /* Rounds are only created once an operation needs them, so none of them is ever executed empty */
+        while (this.rounds.size() <= index)
+        {
+            this.rounds.add(this.ordered
+                ? this.collection.initializeOrderedBulkOperation()
+                : this.collection.initializeUnorderedBulkOperation()
+            );
+        }
+
+        return this.rounds.get(index);
+    }
+}
@@ -0,0 +1,69 @@
+package com.lumiomedical.record.store.mongodb;
+
+import java.util.*;
+import java.util.function.Function;
+
+final class Chunks
+{
+    private Chunks() {}
+
+    /**
+     * Splits the provided items into chunks of at most chunkSize items, preserving their order.
+     *
+     * @param items
+     * @param chunkSize
+     * @param <T>
+     * @return
+     */
+    static <T> List<List<T>> partition(Collection<T> items, int chunkSize)
+    {
+        List<List<T>> chunks = new ArrayList<>();
+        List<T> current = new ArrayList<>(Math.min(items.size(), chunkSize));
+        for (T item : items)
+        {
+            if (current.size() == chunkSize)
+            {
+                chunks.add(current);
+                current = new ArrayList<>(chunkSize);
+            }
+            current.add(item);
+        }
+        if (!current.isEmpty())
+            chunks.add(current);
+
+        return chunks;
+    }
+
+    /**
+     * Splits the provided items into chunks of roughly chunkSize items, keeping all items sharing a uid in the same chunk.
+     * A uid with more than chunkSize items gets a chunk of its own, the relative order of items within a uid is preserved.
+     *
+     * @param items
+     * @param uidProvider
+     * @param chunkSize
+     * @param <T>
+     * @return
+     */
+    static <T> List<List<T>> partitionByUid(Collection<T> items, Function<T, String> uidProvider, int chunkSize)
+    {
+        Map<String, List<T>> groups = new LinkedHashMap<>();
+        for (T item : items)
+            groups.computeIfAbsent(uidProvider.apply(item), uid -> new ArrayList<>()).add(item);
+
+        List<List<T>> chunks = new ArrayList<>();
+        List<T> current = new ArrayList<>();
+        for (List<T> group : groups.values())
+        {
+            if (!current.isEmpty() && current.size() + group.size() > chunkSize)
+            {
+                chunks.add(current);
+                current = new ArrayList<>();
+            }
+            current.addAll(group);
+        }
+        if (!current.isEmpty())
+            chunks.add(current);
+
+        return chunks;
+    }
+}
@@ -0,0 +1,98 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.logging.Logging;
+import com.lumiomedical.record.store.mongodb.factory.RecordFactory;
+import com.mongodb.*;
+
+import java.util.Objects;
+
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbList;
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
+
+/**
+ * A CompactEncodingMigration converts the uid and hash of every version of a store's collection to the encoding the store is configured with,
+ * see RecordFactory.setCompactEncoding. It works in both directions.
+ *
+ * The migration is meant to be run offline: queries only match the encoding in use, so writes performed on the collection while it is
+ * partially converted could open duplicate versions.
+ * Indexes over uid and hash shrink accordingly, a compact index over (uid, hash, validity_start) typically being less than half the size of its string counterpart.
+ */
+public final class CompactEncodingMigration<R extends Record<R>>
+{
+    private final MongoDBRecordStore<R> store;
+    private int batchSize;
+
+    /**
+     *
+     * @param store
+     */
+    public CompactEncodingMigration(MongoDBRecordStore<R> store)
+    {
+        this.store = store;
+        this.batchSize = 1000;
+    }
+
+    /**
+     *
+     * @param batchSize The number of updates sent to the database at once.
+     * @return
+     */
+    public CompactEncodingMigration<R> setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size has to be strictly positive.");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     *
+     * @return The number of versions that were updated.
+     */
+    public long run()
+    {
+        DBCollection collection = this.store.recordCollection();
+        RecordFactory<R> factory = this.store.recordFactory();
+
+        BasicDBObject stringType = dbObject("$type", "string");
+        BasicDBObject query = factory.hasCompactEncoding()
+            ? dbObject("$or", dbList(dbObject("uid", stringType), dbObject("hash", stringType)))
+            : dbObject("$or", dbList(dbObject("uid", dbObject("$not", stringType)), dbObject("hash", dbObject("$not", stringType))));
+        BasicDBObject projection = dbObject("uid", 1).append("hash", 1);
+
+        long updated = 0;
+        long pending = 0;
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+
+        try (DBCursor cursor = collection.find(query, projection).batchSize(this.batchSize)) {
+            while (cursor.hasNext())
+            {
+                DBObject document = cursor.next();
+                Object uid = factory.encodeUid(RecordFactory.decodeUid(document.get("uid")));
+                Object hash = factory.encodeHash(RecordFactory.decodeHash(document.get("hash")));
+
+                /* Non UUID-shaped uids remain strings, such versions keep matching the query without requiring any change */
+                if (Objects.equals(uid, document.get("uid")) && Objects.equals(hash, document.get("hash")))
+                    continue;
+
+                bulk.find(dbObject("_id", document.get("_id")))
+                    .updateOne(dbObject("$set", dbObject("uid", uid).append("hash", hash)));
+
+                if (++pending == this.batchSize)
+                {
+                    updated += bulk.execute().getModifiedCount();
+                    bulk = collection.initializeUnorderedBulkOperation();
+                    pending = 0;
+                }
+            }
+        }
+
+        if (pending > 0)
+            updated += bulk.execute().getModifiedCount();
+
+        Logging.logger.info("Compact encoding migration of " + collection.getName() + " updated " + updated + " versions");
+
+        return updated;
+    }
+}
@@ -0,0 +1,247 @@
+package com.lumiomedical.record.store.mongodb;
+
+import java.util.UUID;
+
+/**
+ * An open-addressing map from long keys to uids, without any boxing.
+ * UUID-shaped uids are held as two longs, other uids fall back to a String array only allocated once such a uid is met.
+ * Keys derived from string ids (ie. hashes) can be stored along with the id itself, so that ids whose keys collide are never mistaken for one another.
+ */
+final class LongUidMap
+{
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] most;
+    private long[] least;
+    private boolean[] used;
+    private String[] others;
+    private String[] ids;
+    private int size;
+    private int mask;
+
+    /**
+     *
+     * @param expectedSize
+     */
+    LongUidMap(int expectedSize)
+    {
+        this.allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     *
+     * @param key
+     * @param uid
+     */
+    void put(long key, String uid)
+    {
+        if (this.size + 1 > (this.mask + 1) * LOAD_FACTOR)
+            this.resize();
+
+        int slot = this.slot(key);
+        if (!this.used[slot]) {
+            this.used[slot] = true;
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.store(slot, uid);
+    }
+
+    /**
+     *
+     * @param key A key derived from the id, eg. its hash
+     * @param id
+     * @param uid
+     * @return false if the key is already held by another id, nothing is stored then.
+     */
+    boolean put(long key, String id, String uid)
+    {
+        if (this.size + 1 > (this.mask + 1) * LOAD_FACTOR)
+            this.resize();
+
+        int slot = this.slot(key);
+        if (this.used[slot] && (this.ids == null || !id.equals(this.ids[slot])))
+            return false;
+
+        if (!this.used[slot]) {
+            this.used[slot] = true;
+            this.keys[slot] = key;
+            this.size++;
+        }
+        if (this.ids == null)
+            this.ids = new String[this.keys.length];
+        this.ids[slot] = id;
+        this.store(slot, uid);
+        return true;
+    }
+
+    /**
+     *
+     * @param key
+     * @return The uid, or null if the key is unknown.
+     */
+    String get(long key)
+    {
+        int slot = this.slot(key);
+        if (!this.used[slot])
+            return null;
+        return this.uid(slot);
+    }
+
+    /**
+     *
+     * @param key A key derived from the id, eg. its hash
+     * @param id
+     * @return The uid, or null if the key is unknown or held by another id.
+     */
+    String get(long key, String id)
+    {
+        int slot = this.slot(key);
+        if (!this.used[slot] || this.ids == null || !id.equals(this.ids[slot]))
+            return null;
+        return this.uid(slot);
+    }
+
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Linear probing, the returned slot either holds the key or is the free slot where it would go.
+     *
+     * @param key
+     * @return
+     */
+    private int slot(long key)
+    {
+        int slot = mix(key) & this.mask;
+        while (this.used[slot] && this.keys[slot] != key)
+            slot = (slot + 1) & this.mask;
+        return slot;
+    }
+
+    /**
+     *
+     * @param slot A used slot
+     * @return
+     */
+    private String uid(int slot)
+    {
+        if (this.others != null && this.others[slot] != null)
+            return this.others[slot];
+        return new UUID(this.most[slot], this.least[slot]).toString();
+    }
+
+    /**
+     *
+     * @param slot
+     * @param uid
+     */
+    private void store(int slot, String uid)
+    {
+        UUID uuid = asUuid(uid);
+        if (uuid != null) {
+            this.most[slot] = uuid.getMostSignificantBits();
+            this.least[slot] = uuid.getLeastSignificantBits();
+            if (this.others != null)
+                this.others[slot] = null;
+        }
+        else {
+            if (this.others == null)
+                this.others = new String[this.keys.length];
+            this.others[slot] = uid;
+        }
+    }
+
+    private void resize()
+    {
+        long[] keys = this.keys;
+        long[] most = this.most;
+        long[] least = this.least;
+        boolean[] used = this.used;
+        String[] others = this.others;
+        String[] ids = this.ids;
+
+        this.allocate(keys.length * 2);
+        if (others != null)
+            this.others = new String[this.keys.length];
+        if (ids != null)
+            this.ids = new String[this.keys.length];
+
+        for (int i = 0 ; i < keys.length ; ++i)
+        {
+            if (!used[i])
+                continue;
+
+            int slot = this.slot(keys[i]);
+            this.used[slot] = true;
+            this.keys[slot] = keys[i];
+            this.most[slot] = most[i];
+            this.least[slot] = least[i];
+            if (others != null)
+                this.others[slot] = others[i];
+            if (ids != null)
+                this.ids[slot] = ids[i];
+        }
+    }
+
+    /**
+     *
+     * @param capacity A power of two
+     */
+    private void allocate(int capacity)
+    {
+        this.keys = new long[capacity];
+        this.most = new long[capacity];
+        this.least = new long[capacity];
+        this.used = new boolean[capacity];
+        this.others = null;
+        this.ids = null;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     *
+     * @param expectedSize
+     * @return
+     */
+    private static int capacityFor(int expectedSize)
+    {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    /**
+     * Spreads the key bits so that sequential keys don't end up in sequential slots.
+     *
+     * @param key
+     * @return
+     */
+    private static int mix(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     *
+     * @param uid
+     * @return The UUID if the uid is the canonical form of one, null otherwise.
+     */
+    private static UUID asUuid(String uid)
+    {
+        if (uid.length() != 36)
+            return null;
+        try {
+            UUID uuid = UUID.fromString(uid);
+            return uuid.toString().equals(uid) ? uuid : null;
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -4,16 +4,39 @@ import com.lumiomedical.record.Record;
 import com.lumiomedical.record.Referential;
 import com.lumiomedical.record.UidHolder;
 import com.lumiomedical.record.logging.Logging;
+import com.lumiomedical.record.source.AbstractSource;
 import com.lumiomedical.record.source.Source;
+import com.lumiomedical.record.store.Change;
+import com.lumiomedical.record.store.ChunkedPutReport;
+import com.lumiomedical.record.store.CommitListener;
+import com.lumiomedical.record.store.Page;
+import com.lumiomedical.record.store.PutReport;
 import com.lumiomedical.record.store.RecordStore;
+import com.lumiomedical.record.store.RecordView;
 import com.lumiomedical.record.store.Referentialized;
+import com.lumiomedical.record.store.TimelineEntry;
+import com.lumiomedical.record.store.cache.HistoryCache;
+import com.lumiomedical.record.store.cache.RecordCache;
+import com.lumiomedical.record.store.mongodb.codec.LazyRecord;
+import com.lumiomedical.record.store.mongodb.codec.RecordCodec;
+import com.lumiomedical.record.store.mongodb.codec.RecordDocumentCodec;
 import com.lumiomedical.record.store.mongodb.factory.RecordFactory;
+import com.lumiomedical.record.store.mongodb.hash.RecordHashStrategy;
+import com.lumiomedical.record.store.mongodb.index.IndexBuild;
+import com.lumiomedical.record.store.mongodb.index.IndexManager;
+import com.lumiomedical.record.store.mongodb.planner.TemporalWritePlan;
+import com.lumiomedical.record.store.mongodb.planner.TemporalWritePlanner;
+import com.lumiomedical.record.store.mongodb.planner.Version;
 import com.mongodb.*;
 import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.TransactionBody;
-import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import com.noleme.mongodb.MongoDBClient;
 import com.noleme.store.factory.Builder;
 import com.noleme.store.factory.Factory;
@@ -21,19 +44,30 @@ import com.noleme.store.factory.Transcriber;
 import com.noleme.store.mongodb.DefaultMongoDBStore;
 import com.noleme.store.query.Filter;
 import com.noleme.store.query.Query;
-import net.openhft.hashing.LongHashFunction;
-import org.bson.BSONObject;
-import org.bson.BsonBinaryWriter;
 import org.bson.Document;
-import org.bson.codecs.EncoderContext;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.conversions.Bson;
-import org.bson.io.BasicOutputBuffer;
-import org.bson.io.OutputBuffer;
-import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
 
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.lumiomedical.record.store.mongodb.DBObjects.dbList;
 import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
@@ -44,9 +78,32 @@ import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
  */
 public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMongoDBStore<R> implements RecordStore<R>
 {
+    private static final int AS_OF_CHUNK_SIZE = 500;
+    /* Covers timeline queries, the projection then doesn't need to read any document */
+    private static final BasicDBObject TIMELINE_INDEX = dbObject()
+        .append("uid", 1)
+        .append("validity_start", 1)
+        .append("validity_end", 1)
+        .append("hash", 1)
+        .append("_id", 1);
+
     private final RecordFactory<R> recordFactory;
-    private final LongHashFunction hashFunction;
+    private RecordHashStrategy hashStrategy;
+    private final Set<RecordHashStrategy> acceptedHashStrategies = new CopyOnWriteArraySet<>();
     private boolean enabledTransactions;
+    private boolean orderedWrites;
+    private boolean plannedWrites;
+    private int chunkSize;
+    private ExecutorService chunkExecutor;
+    private ForkJoinPool preparationPool;
+    private int streamBatchSize;
+    private int sourceChunkSize;
+    private Executor sourceExecutor;
+    private RecordCache<R> recordCache;
+    private HistoryCache<R> historyCache;
+    private RecordDocumentCodec<R> documentCodec;
+    private MongoCollection<R> codecCollection;
+    private final List<CommitListener<R>> commitListeners = new CopyOnWriteArrayList<>();
 
     /**
      *
@@ -57,37 +114,130 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     {
         super(client, factory);
         this.recordFactory = new RecordFactory<>();
-        this.hashFunction = LongHashFunction.city_1_1();
+        this.setHashStrategy(RecordHashStrategy.city());
         this.setEnabledTransactions(true);
+        this.setOrderedWrites(true);
+        this.setPlannedWrites(false);
+        this.setChunkSize(0);
+        this.setStreamBatchSize(1000);
+        this.setSourceChunkSize(10_000);
     }
 
+    /**
+     * Creates the indexes this store relies on, only issuing createIndex commands for the ones that are missing.
+     * This blocks until they are built, see buildIndexes for building them in the background.
+     */
     @Override
     public void createIndexes()
     {
-        this.collection.createIndex("uid");
-        this.collection.createIndex("hash");
-        this.collection.createIndex("validity_start");
-        this.collection.createIndex("validity_end");
-        this.collection.createIndex(
-            dbObject()
-                .append("validity_start", 1)
-                .append("validity_end", 1)
-        );
-        this.collection.createIndex(
-            dbObject()
-                .append("uid", 1)
-                .append("validity_start", 1),
-            null,
-            true
-        );
-        this.collection.createIndex(
-            dbObject()
-                .append("uid", 1)
-                .append("hash", 1)
-                .append("validity_start", 1),
-            null,
-            true
-        );
+        this.buildIndexes(Runnable::run).await();
+    }
+
+    /**
+     * Creates the indexes this store relies on in the background, only issuing createIndex commands for the ones that are missing.
+     * The store can serve reads and writes in the meantime, queries simply won't be able to use the indexes until they are built.
+     *
+     * @param executor
+     * @return An IndexBuild for tracking the progress of the build
+     */
+    public IndexBuild buildIndexes(Executor executor)
+    {
+        return new IndexManager(this.mongoCollection).build(this.indexModels(), executor);
+    }
+
+    /**
+     * Lists the indexes this store relies on, stores querying other fields can override it for adding their own.
+     *
+     * @return
+     */
+    protected List<IndexModel> indexModels()
+    {
+        List<IndexModel> models = new ArrayList<>(List.of(
+            new IndexModel(Indexes.ascending("uid")),
+            new IndexModel(Indexes.ascending("hash")),
+            new IndexModel(Indexes.ascending("validity_start")),
+            new IndexModel(Indexes.ascending("validity_end")),
+            new IndexModel(Indexes.ascending("validity_start", "validity_end")),
+            new IndexModel(Indexes.ascending("uid", "validity_start"), new IndexOptions().unique(true)),
+            new IndexModel(Indexes.ascending("uid", "hash", "validity_start"), new IndexOptions().unique(true)),
+            new IndexModel(TIMELINE_INDEX)
+        ));
+
+        /* Registered sources and @TemporalIndex fields are queried alongside validity bounds, hence the compound indexes */
+        Class<?> recordType = this.getRecordType();
+        for (String path : TemporalIndexes.sourcePaths(recordType))
+            models.add(new IndexModel(TemporalIndexes.sourceIndex(path)));
+        for (String path : TemporalIndexes.fieldPaths(recordType))
+            models.add(new IndexModel(Indexes.ascending(path, "validity_start", "validity_end")));
+
+        return models;
+    }
+
+    /**
+     * Lists the number of operations that used each index of the collection, as reported by $indexStats.
+     * Note that these counters are maintained per server and are reset whenever the server restarts.
+     *
+     * @return A map of index name to operation count
+     */
+    public Map<String, Long> indexUsage()
+    {
+        Map<String, Long> usage = new LinkedHashMap<>();
+
+        this.mongoCollection.aggregate(List.of(dbObject("$indexStats", dbObject()))).forEach((Consumer<? super Document>) doc -> {
+            Document accesses = doc.get("accesses", Document.class);
+            usage.merge(doc.getString("name"), accesses.get("ops", Number.class).longValue(), Long::sum);
+        });
+
+        return usage;
+    }
+
+    /**
+     * Lists the indexes of the collection that weren't used by any operation since their usage counters were last reset, the _id index excluded.
+     *
+     * @return
+     */
+    public List<String> listUnusedIndexes()
+    {
+        List<String> unused = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : this.indexUsage().entrySet())
+        {
+            if (entry.getValue() == 0 && !entry.getKey().equals("_id_"))
+                unused.add(entry.getKey());
+        }
+        return unused;
+    }
+
+    /**
+     * Resolves the record type from the store's type arguments, which is used for deriving indexes from the SourceRegister and @TemporalIndex annotations.
+     * Type variables are followed through the whole hierarchy, stores whose record type remains unbound (eg. generic stores instantiated directly) should override this method.
+     *
+     * @return The record type, or null if it couldn't be resolved
+     */
+    protected Class<?> getRecordType()
+    {
+        Map<TypeVariable<?>, Type> bindings = new HashMap<>();
+
+        /* Superclasses are walked from the concrete class up, so a variable is always bound before its bindings are needed by its superclass */
+        for (Class<?> type = this.getClass() ; type != null && type != MongoDBRecordStore.class ; type = type.getSuperclass())
+        {
+            if (!(type.getGenericSuperclass() instanceof ParameterizedType))
+                continue;
+
+            ParameterizedType superType = (ParameterizedType) type.getGenericSuperclass();
+            TypeVariable<?>[] variables = ((Class<?>) superType.getRawType()).getTypeParameters();
+            Type[] arguments = superType.getActualTypeArguments();
+            for (int i = 0 ; i < variables.length ; ++i)
+                bindings.put(variables[i], bindings.getOrDefault(arguments[i], arguments[i]));
+        }
+
+        Type recordType = bindings.get(MongoDBRecordStore.class.getTypeParameters()[0]);
+        if (recordType instanceof ParameterizedType)
+            recordType = ((ParameterizedType) recordType).getRawType();
+        if (recordType instanceof Class)
+            return (Class<?>) recordType;
+
+        Logging.logger.warn("The record type of " + this.getClass().getName() + " couldn't be resolved, no index will be derived from its sources or @TemporalIndex fields: getRecordType() should be overridden.");
+        return null;
     }
 
     /**
@@ -100,6 +250,17 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
         return this.recordFactory.enrichBuild(obj, this.factory.build(obj));
     }
 
+    /**
+     * Produces an independent copy of a stored version by going through its stored form.
+     *
+     * @param record
+     * @return
+     */
+    protected R copy(R record)
+    {
+        return this.buildRecord(this.storedForm(record));
+    }
+
     @Override
     public R find(String uid)
     {
@@ -109,7 +270,65 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public R find(String uid, Referential referential)
     {
-        return this.find(new Query("uid", uid), referential);
+        if (this.recordCache != null && referential.isNow())
+            return this.findCached(uid, referential);
+        if (this.historyCache != null && referential.isAt())
+            return this.findHistorical(uid, referential);
+
+        return this.findUncached(uid, referential);
+    }
+
+    /**
+     *
+     * @param uid
+     * @param referential A "now" referential
+     * @return
+     */
+    private R findCached(String uid, Referential referential)
+    {
+        R cached = this.recordCache.get(uid);
+        if (cached != null)
+            return cached;
+
+        long epoch = this.recordCache.epoch();
+        R record = this.findUncached(uid, referential);
+        if (record != null)
+            this.recordCache.put(uid, record, epoch);
+
+        return record;
+    }
+
+    /**
+     *
+     * @param uid
+     * @param referential An "at" referential
+     * @return
+     */
+    private R findHistorical(String uid, Referential referential)
+    {
+        R cached = this.historyCache.get(uid, referential.asAt().getAt());
+        if (cached != null)
+            return cached;
+
+        long epoch = this.historyCache.epoch();
+        R record = this.findUncached(uid, referential);
+        if (record != null)
+            this.historyCache.put(record, epoch);
+
+        return record;
+    }
+
+    /**
+     *
+     * @param uid
+     * @param referential
+     * @return
+     */
+    private R findUncached(String uid, Referential referential)
+    {
+        BasicDBObject dbObject = this.applyReferentialCriteria(this.uidCriteria(uid), referential);
+
+        return this.findDecoded(dbObject);
     }
 
     @Override
@@ -121,7 +340,11 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public R find(Query query, Referential referential)
     {
-        return this.find(query, new Filter(), referential);
+        BasicDBObject dbObject = (BasicDBObject) this.buildQuery(query);
+
+        dbObject = this.applyReferentialCriteria(dbObject, referential);
+
+        return this.findDecoded(dbObject);
     }
 
     @Override
@@ -177,7 +400,52 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public List<R> list(Collection<String> uids, Referential referential)
     {
-        return this.list(uids, new Filter(), referential);
+        if (this.recordCache == null || !referential.isNow())
+            return this.listUncached(uids, referential);
+
+        Set<String> distinct = new LinkedHashSet<>(uids);
+        Map<String, R> found = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String uid : distinct)
+        {
+            R cached = this.recordCache.get(uid);
+            if (cached != null)
+                found.put(uid, cached);
+            else
+                misses.add(uid);
+        }
+
+        if (!misses.isEmpty()) {
+            long epoch = this.recordCache.epoch();
+            for (R record : this.listUncached(misses, referential))
+            {
+                this.recordCache.put(record.getUid(), record, epoch);
+                found.put(record.getUid(), record);
+            }
+        }
+
+        /* Records are returned in the order of the provided uids, whichever of them were cached */
+        List<R> records = new ArrayList<>(found.size());
+        for (String uid : distinct)
+        {
+            R record = found.get(uid);
+            if (record != null)
+                records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     *
+     * @param uids
+     * @param referential
+     * @return
+     */
+    private List<R> listUncached(Collection<String> uids, Referential referential)
+    {
+        BasicDBObject dbObject = this.applyReferentialCriteria(this.uidCriteria(uids), referential);
+
+        return this.listDecoded(dbObject);
     }
 
     @Override
@@ -189,7 +457,9 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public List<R> list(Collection<String> uids, Filter filter, Referential referential)
     {
-        return this.list(new Query().in("uid", uids), filter, referential);
+        BasicDBObject dbObject = this.applyReferentialCriteria(this.uidCriteria(uids), referential);
+
+        return this.listByDbObject(dbObject, filter);
     }
 
     @Override
@@ -201,7 +471,11 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public List<R> list(Query query, Referential referential)
     {
-        return this.list(query, new Filter(), referential);
+        BasicDBObject dbObject = (BasicDBObject) this.buildQuery(query);
+
+        dbObject = this.applyReferentialCriteria(dbObject, referential);
+
+        return this.listDecoded(dbObject);
     }
 
     @Override
@@ -241,7 +515,9 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public Map<String, R> map(Collection<String> uids, Filter filter, Referential referential)
     {
-        return this.map(new Query().in("uids", uids), filter, referential);
+        BasicDBObject dbObject = this.applyReferentialCriteria(this.uidCriteria(uids), referential);
+
+        return this.mapByDbObject(dbObject, filter);
     }
 
     @Override
@@ -272,6 +548,257 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
         return this.mapByDbObject(dbObject, filter);
     }
 
+    /**
+     * Versions are fetched with one $or query per chunk of AS_OF_CHUNK_SIZE uids, each clause being a point lookup over the (uid, validity_start) index.
+     *
+     * @param instants
+     * @return
+     */
+    @Override
+    public Map<String, R> findAsOf(Map<String, Instant> instants)
+    {
+        Map<String, R> records = new HashMap<>();
+        BasicDBList clauses = new BasicDBList();
+
+        for (Map.Entry<String, Instant> entry : instants.entrySet())
+        {
+            clauses.add(this.applyReferentialCriteria(this.uidCriteria(entry.getKey()), Referential.at(entry.getValue())));
+
+            if (clauses.size() == AS_OF_CHUNK_SIZE) {
+                this.findAsOf(clauses, records);
+                clauses = new BasicDBList();
+            }
+        }
+        if (!clauses.isEmpty())
+            this.findAsOf(clauses, records);
+
+        return records;
+    }
+
+    /**
+     *
+     * @param clauses
+     * @param records
+     */
+    private void findAsOf(BasicDBList clauses, Map<String, R> records)
+    {
+        for (R record : this.listDecoded(dbObject("$or", clauses)))
+            records.put(record.getUid(), record);
+    }
+
+    @Override
+    public List<TimelineEntry<R>> timeline(String uid)
+    {
+        return this.timelines(List.of(uid)).getOrDefault(uid, Collections.emptyList());
+    }
+
+    @Override
+    public Map<String, List<TimelineEntry<R>>> timelines(Collection<String> uids)
+    {
+        Map<String, List<TimelineEntry<R>>> timelines = new HashMap<>();
+        if (uids.isEmpty())
+            return timelines;
+
+        DBObject sort = dbObject()
+            .append("uid", 1)
+            .append("validity_start", 1);
+
+        /* Not hinted, so that a missing or building index slows the read down rather than failing it; once built, the planner picks the timeline index as it covers both the sort and the projection */
+        try (DBCursor cursor = this.collection.find(this.uidCriteria(uids), TIMELINE_INDEX).sort(sort)) {
+            for (DBObject document : cursor)
+            {
+                BasicDBObject version = (BasicDBObject) document;
+                timelines.computeIfAbsent(RecordFactory.decodeUid(version.get("uid")), uid -> new ArrayList<>()).add(new TimelineEntry<>(
+                    version.getObjectId("_id").toHexString(),
+                    RecordFactory.decodeHash(version.get("hash")),
+                    DBObjects.getInstantOrNull(version, "validity_start"),
+                    RecordFactory.decodeValidityEnd(version),
+                    this::findById
+                ));
+            }
+        }
+        return timelines;
+    }
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    private R findById(String id)
+    {
+        return this.findByDbObject(dbObject("_id", new ObjectId(id)), new Filter());
+    }
+
+    /**
+     * Candidate uids are found with range scans over the validity_start and validity_end indexes, grouped server-side and consumed in chunks of AS_OF_CHUNK_SIZE.
+     * For each chunk, only the versions valid at either instant are then fetched, so the cost is proportional to the number of changes.
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    @Override
+    public Stream<Change> changes(Instant from, Instant to)
+    {
+        if (!from.isBefore(to))
+            throw new IllegalArgumentException("The start of the range has to be before its end.");
+
+        MongoCursor<Document> cursor = this.mongoCollection.aggregate(List.of(
+            Aggregates.match(Filters.or(
+                Filters.and(Filters.gt("validity_start", from), Filters.lte("validity_start", to)),
+                Filters.and(Filters.gt("validity_end", from), Filters.lte("validity_end", to))
+            )),
+            Aggregates.group("$uid")
+        )).allowDiskUse(true).batchSize(this.streamBatchSize).iterator();
+
+        Iterator<List<String>> chunks = new Iterator<>() {
+            @Override
+            public boolean hasNext()
+            {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public List<String> next()
+            {
+                List<String> chunk = new ArrayList<>(AS_OF_CHUNK_SIZE);
+                while (cursor.hasNext() && chunk.size() < AS_OF_CHUNK_SIZE)
+                    chunk.add(RecordFactory.decodeUid(cursor.next().get("_id")));
+                return chunk;
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.NONNULL), false)
+            .flatMap(chunk -> this.changes(chunk, from, to).stream())
+            .onClose(cursor::close);
+    }
+
+    /**
+     *
+     * @param uids
+     * @param from
+     * @param to
+     * @return
+     */
+    private List<Change> changes(Collection<String> uids, Instant from, Instant to)
+    {
+        BasicDBObject query = new BasicDBObject("$and", dbList(
+            this.uidCriteria(uids),
+            this.withOpenOrEndingAfter(dbObject("validity_start", dbObject("$lte", to)), "$gt", from)
+        ));
+        BasicDBObject projection = dbObject()
+            .append("uid", 1)
+            .append("hash", 1)
+            .append("validity_start", 1)
+            .append("validity_end", 1);
+
+        Map<String, String> before = new HashMap<>();
+        Map<String, String> after = new HashMap<>();
+        try (DBCursor cursor = this.collection.find(query, projection)) {
+            for (DBObject document : cursor)
+            {
+                BasicDBObject version = (BasicDBObject) document;
+                String uid = RecordFactory.decodeUid(version.get("uid"));
+                String hash = RecordFactory.decodeHash(version.get("hash"));
+                Instant start = DBObjects.getInstantOrNull(version, "validity_start");
+                Instant end = RecordFactory.decodeValidityEnd(version);
+
+                if (!start.isAfter(from) && (end == null || end.isAfter(from)))
+                    before.put(uid, hash);
+                if (end == null || end.isAfter(to))
+                    after.put(uid, hash);
+            }
+        }
+
+        List<Change> changes = new ArrayList<>();
+        for (String uid : uids)
+        {
+            String oldHash = before.get(uid);
+            String newHash = after.get(uid);
+
+            if (oldHash == null && newHash != null)
+                changes.add(new Change(uid, Change.Kind.CREATED, null, newHash));
+            else if (oldHash != null && newHash == null)
+                changes.add(new Change(uid, Change.Kind.CLOSED, oldHash, null));
+            /* Versions may have been shifted or recreated without their content changing */
+            else if (oldHash != null && !oldHash.equals(newHash))
+                changes.add(new Change(uid, Change.Kind.MODIFIED, oldHash, newHash));
+        }
+        return changes;
+    }
+
+    @Override
+    public RecordView findView(String uid, Referential referential, Collection<String> fields)
+    {
+        BasicDBObject dbObject = this.applyReferentialCriteria(this.uidCriteria(uid), referential);
+
+        DBObject document = this.collection.findOne(dbObject, viewProjection(fields));
+
+        return document != null ? buildView((BasicDBObject) document) : null;
+    }
+
+    @Override
+    public List<RecordView> listView(Query query, Referential referential, Collection<String> fields)
+    {
+        BasicDBObject dbObject = (BasicDBObject) this.buildQuery(query);
+
+        dbObject = this.applyReferentialCriteria(dbObject, referential);
+
+        List<RecordView> views = new ArrayList<>();
+        try (DBCursor cursor = this.collection.find(dbObject, viewProjection(fields)).batchSize(this.streamBatchSize)) {
+            for (DBObject document : cursor)
+                views.add(buildView((BasicDBObject) document));
+        }
+        return views;
+    }
+
+    /**
+     *
+     * @param fields
+     * @return A projection over the provided fields and the version metadata.
+     */
+    private static BasicDBObject viewProjection(Collection<String> fields)
+    {
+        BasicDBObject projection = dbObject()
+            .append("uid", 1)
+            .append("hash", 1)
+            .append("validity_start", 1)
+            .append("validity_end", 1);
+        for (String field : fields)
+            projection.append(field, 1);
+        return projection;
+    }
+
+    /**
+     *
+     * @param document
+     * @return
+     */
+    private static RecordView buildView(BasicDBObject document)
+    {
+        String id = document.getObjectId("_id").toHexString();
+        String uid = RecordFactory.decodeUid(document.get("uid"));
+        String hash = RecordFactory.decodeHash(document.get("hash"));
+        Instant validityEnd = RecordFactory.decodeValidityEnd(document);
+
+        /* The fields are given the decoded metadata so that they don't expose the compact encoding nor the open-end sentinel */
+        Map<String, Object> fields = new LinkedHashMap<>(document);
+        fields.put("_id", id);
+        fields.put("uid", uid);
+        fields.put("hash", hash);
+        fields.put("validity_end", validityEnd);
+
+        return new RecordView(
+            id,
+            uid,
+            hash,
+            DBObjects.getInstantOrNull(document, "validity_start"),
+            validityEnd,
+            fields
+        );
+    }
+
     @Override
     public void put(R item)
     {
@@ -291,6 +818,7 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     }
 
     /**
+     * A failure is only logged when transactions are enabled, and propagated when they aren't.
      *
      * @param item
      * @param referential
@@ -298,11 +826,18 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
      */
     public void put(R item, Referential referential, Transcriber<BasicDBObject, R> transcriber)
     {
-        this.executeTransaction(() -> {
-            BulkWriteOperation op = this.collection.initializeOrderedBulkOperation();
-            this.addPutOperation(op, referential, item, transcriber);
-            op.execute();
-        }, "Record insertion successful", "Record insertion aborted");
+        List<Referentialized<R>> items = List.of(new Referentialized<>(item, resolveReferential(referential)));
+        boolean committed = false;
+        try {
+            committed = this.executeTransaction(() -> {
+                BulkRounds op = this.newBulk();
+                this.queuePuts(op, items, List.of(this.prepare(item, transcriber)));
+                op.execute();
+            }, "Record insertion successful", "Record insertion aborted");
+        }
+        finally {
+            this.notifyWrite(items, committed);
+        }
     }
 
     @Override
@@ -324,6 +859,8 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     }
 
     /**
+     * With chunking enabled, failed chunks are only logged: see putChunked for a report of each chunk's outcome.
+     * Otherwise a failure is only logged when transactions are enabled, and propagated when they aren't.
      *
      * @param items
      * @param referential
@@ -333,69 +870,577 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     {
         if (items.isEmpty())
             return;
-        this.executeTransaction(() -> {
-            BulkWriteOperation op = this.collection.initializeOrderedBulkOperation();
-            for (R item : items)
-                this.addPutOperation(op, referential, item, transcriber);
-            op.execute();
-        }, "Record insertion successful", "Record insertion aborted");
+        if (this.hasChunking()) {
+            logFailures(this.putChunked(items, referential, transcriber));
+            return;
+        }
+        List<Referentialized<R>> referentialized = referentialize(items, resolveReferential(referential));
+        boolean committed = false;
+        try {
+            committed = this.executeTransaction(() -> {
+                BulkRounds op = this.newBulk();
+                List<BasicDBObject> transcripts = this.prepare(records(referentialized), transcriber);
+                this.queuePuts(op, referentialized, transcripts);
+                op.execute();
+            }, "Record insertion successful", "Record insertion aborted");
+        }
+        finally {
+            this.notifyWrite(referentialized, committed);
+        }
+    }
+
+    @Override
+    public PutReport putChanged(Collection<R> items)
+    {
+        return this.putChanged(items, Referential.now(), this.factory);
+    }
+
+    @Override
+    public PutReport putChanged(Collection<R> items, Referential referential)
+    {
+        return this.putChanged(items, referential, this.factory);
     }
 
     /**
+     * A diff-aware variant of put(Collection, Referential, Transcriber).
+     * The (uid, hash, validity) of the versions relevant to the referential are fetched for the whole batch in a single $in query,
+     * operations are then only queued for items that are new or whose hash differs from what is already stored.
      *
-     * @param referentializedItems
+     * @param items
+     * @param referential
+     * @param transcriber
+     * @return
+     * @throws IllegalArgumentException If the provided Referential is a Referential.any() instance or if it's in an unknown state.
+     * @throws MongoException If the write fails, unlike put the failure is propagated as the report couldn't be trusted otherwise.
      */
-    public void putAt(Collection<Referentialized<R>> referentializedItems)
+    public PutReport putChanged(Collection<R> items, Referential referential, Transcriber<BasicDBObject, R> transcriber)
     {
-        this.putReferentialized(referentializedItems, this.factory);
+        if (items.isEmpty())
+            return PutReport.empty();
+
+        /* The "now" point is resolved once so that the pre-read and the write operations agree on it */
+        Referential resolved = resolveReferential(referential);
+
+        if (this.hasChunking()) {
+            ChunkedPutReport report = this.putChunked(
+                referentialize(items, resolved),
+                chunk -> this.runTransaction(() -> this.writeChanged(chunk, resolved, transcriber))
+            );
+            logFailures(report);
+            return report.getReport();
+        }
+
+        /* The pre-read and the bulk are done within the transaction body, which the driver may retry on transient errors */
+        List<Referentialized<R>> referentialized = referentialize(items, resolved);
+        PutReport report = null;
+        try {
+            report = this.runTransaction(() -> this.writeChanged(referentialized, resolved, transcriber));
+            return report;
+        }
+        finally {
+            if (report == null)
+                this.notifyWrite(referentialized, false);
+            else if (report.getWritten() > 0)
+                this.notifyWrite(referentialized, true);
+        }
     }
 
     /**
      *
-     * @param referentializedItems
+     * @param items
+     * @param referential A resolved referential, see resolveReferential
      * @param transcriber
+     * @return
      */
-    public void putReferentialized(Collection<Referentialized<R>> referentializedItems, Transcriber<BasicDBObject, R> transcriber)
+    private PutReport writeChanged(Collection<Referentialized<R>> items, Referential referential, Transcriber<BasicDBObject, R> transcriber)
     {
-        if (referentializedItems.isEmpty())
-            return;
-        this.executeTransaction(() -> {
-            BulkWriteOperation op = this.collection.initializeOrderedBulkOperation();
-            for (Referentialized<R> referentializedItem : referentializedItems)
-                this.addPutOperation(op, referentializedItem.referential, referentializedItem.record, transcriber);
+        BulkRounds op = this.newBulk();
+        PutReport report = this.queueChanged(op, records(items), referential, transcriber);
+
+        if (report.getWritten() > 0)
             op.execute();
-        }, "Record insertion successful", "Record insertion aborted");
+
+        return report;
     }
 
     /**
+     * Queues the operations required for the items that are new or have changed, the operation is left for the caller to execute.
      *
-     * @param operation
-     * @param successMessage
-     * @param failureMessage
+     * @param op
+     * @param items
+     * @param referential A resolved referential, see resolveReferential
+     * @param transcriber
+     * @return
      */
-    protected void executeTransaction(Runnable operation, String successMessage, String failureMessage)
+    private PutReport queueChanged(BulkRounds op, Collection<R> items, Referential referential, Transcriber<BasicDBObject, R> transcriber)
     {
-        if (!this.hasEnabledTransactions())
-            operation.run();
-        else {
-            try (ClientSession session = this.client.db().getMongoClient().startSession()) {
-                TransactionOptions txnOptions = TransactionOptions.builder()
-                    .readPreference(ReadPreference.primary())
-                    .readConcern(ReadConcern.LOCAL)
-                    .writeConcern(WriteConcern.MAJORITY)
-                    .build();
-
-                TransactionBody<String> txnBody = () -> {
-                    operation.run();
-                    return successMessage;
-                };
-
-                session.withTransaction(txnBody, txnOptions);
-            }
-            catch (RuntimeException e) {
-                Logging.logger.error(failureMessage + ": " + e.getMessage() + " (" + e.getClass().getName() + ")");
-                e.printStackTrace();
+        List<BasicDBObject> transcripts = this.prepare(new ArrayList<>(items), transcriber);
+        Set<String> uids = new HashSet<>();
+        for (R item : items)
+            uids.add(item.getUid());
+
+        Map<String, List<BasicDBObject>> versions = this.fetchOverlappingVersions(uids, referential);
+
+        int skipped = 0;
+        int truncated = 0;
+        List<Referentialized<R>> writes = new ArrayList<>();
+        List<BasicDBObject> writeTranscripts = new ArrayList<>();
+
+        Iterator<BasicDBObject> transcriptIterator = transcripts.iterator();
+        for (R item : items)
+        {
+            BasicDBObject obj = transcriptIterator.next();
+            List<BasicDBObject> current = versions.getOrDefault(item.getUid(), Collections.emptyList());
+            List<String> hashes = this.hashes(item, obj);
+
+            if (isCovered(current, hashes, referential))
+            {
+                skipped++;
+                continue;
             }
+
+            for (BasicDBObject version : current)
+            {
+                if (!hashes.contains(RecordFactory.decodeHash(version.get("hash"))))
+                    truncated++;
+            }
+
+            writes.add(new Referentialized<>(item, referential));
+            writeTranscripts.add(obj);
+
+            /*
+             * Subsequent items with the same uid have to be compared against what this item will leave behind.
+             * For "time segments" we simply stop trusting the pre-read, which means these items will always be written.
+             */
+            if (referential.isAt())
+                versions.put(item.getUid(), List.of(openVersion(item, referential.asAt().getAt())));
+            else
+                versions.remove(item.getUid());
+        }
+
+        this.queuePuts(op, writes, writeTranscripts);
+
+        return new PutReport(writes.size(), skipped, truncated);
+    }
+
+    /**
+     *
+     * @param referentializedItems
+     */
+    public void putAt(Collection<Referentialized<R>> referentializedItems)
+    {
+        this.putReferentialized(referentializedItems, this.factory);
+    }
+
+    /**
+     * With chunking enabled, failed chunks are only logged: see putChunked for a report of each chunk's outcome.
+     * Otherwise a failure is only logged when transactions are enabled, and propagated when they aren't.
+     *
+     * @param referentializedItems
+     * @param transcriber
+     */
+    public void putReferentialized(Collection<Referentialized<R>> referentializedItems, Transcriber<BasicDBObject, R> transcriber)
+    {
+        if (referentializedItems.isEmpty())
+            return;
+        if (this.hasChunking()) {
+            logFailures(this.putReferentializedChunked(referentializedItems, transcriber));
+            return;
+        }
+        List<Referentialized<R>> resolved = resolve(referentializedItems);
+        boolean committed = false;
+        try {
+            committed = this.executeTransaction(() -> {
+                BulkRounds op = this.newBulk();
+                this.queueReferentialized(op, resolved, transcriber);
+                op.execute();
+            }, "Record insertion successful", "Record insertion aborted");
+        }
+        finally {
+            this.notifyWrite(resolved, committed);
+        }
+    }
+
+    /**
+     *
+     * @param op
+     * @param referentializedItems
+     * @param transcriber
+     */
+    private void queueReferentialized(BulkRounds op, Collection<Referentialized<R>> referentializedItems, Transcriber<BasicDBObject, R> transcriber)
+    {
+        List<BasicDBObject> transcripts = this.prepare(records(referentializedItems), transcriber);
+
+        this.queuePuts(op, new ArrayList<>(referentializedItems), transcripts);
+    }
+
+    /**
+     * Queues the operations for the provided items, either as the historical server-side operations or as a plan computed client-side.
+     *
+     * @param op
+     * @param items
+     * @param transcripts The transcripts produced by prepare for each item
+     */
+    private void queuePuts(BulkRounds op, List<Referentialized<R>> items, List<BasicDBObject> transcripts)
+    {
+        if (this.hasPlannedWrites()) {
+            this.queuePlanned(op, items, transcripts);
+            return;
+        }
+
+        for (int i = 0 ; i < items.size() ; ++i)
+            this.addPutOperation(op, items.get(i).referential, items.get(i).record, transcripts.get(i));
+    }
+
+    /**
+     * Loads the timeline of every affected uid at once, merges the items of each uid in memory and queues only the resulting concrete operations.
+     *
+     * @param op
+     * @param items
+     * @param transcripts
+     * @throws IllegalArgumentException If one of the provided Referential is a Referential.any() instance or if it's in an unknown state.
+     */
+    private void queuePlanned(BulkRounds op, List<Referentialized<R>> items, List<BasicDBObject> transcripts)
+    {
+        Set<String> uids = new HashSet<>();
+        for (Referentialized<R> item : items)
+            uids.add(item.record.getUid());
+
+        Map<String, List<Version>> timelines = this.fetchTimelines(uids);
+        Map<String, TemporalWritePlanner> planners = new LinkedHashMap<>();
+
+        /* The "now" point is resolved once for the whole batch */
+        Referential now = Referential.at(Instant.now());
+        for (int i = 0 ; i < items.size() ; ++i)
+        {
+            Referentialized<R> item = items.get(i);
+            List<Version> timeline = timelines.getOrDefault(item.record.getUid(), Collections.emptyList());
+            String hash = plannedHash(timeline, this.hashes(item.record, transcripts.get(i)));
+
+            planners
+                .computeIfAbsent(item.record.getUid(), uid -> new TemporalWritePlanner(timeline))
+                .put(item.referential.isNow() ? now : item.referential, hash, transcripts.get(i));
+        }
+
+        for (Map.Entry<String, TemporalWritePlanner> entry : planners.entrySet())
+            this.queuePlan(op, entry.getKey(), entry.getValue().plan());
+    }
+
+    /**
+     * The planner compares hashes as-is: if a stored version bears one of the item's hashes under an accepted strategy, that one is used for planning.
+     * This only matters for comparisons, inserted versions are always stored with the document's own hash.
+     *
+     * @param timeline
+     * @param hashes The hashes of the item, see hashes
+     * @return
+     */
+    private static String plannedHash(List<Version> timeline, List<String> hashes)
+    {
+        for (String hash : hashes)
+        {
+            for (Version version : timeline)
+            {
+                if (hash.equals(version.getHash()))
+                    return hash;
+            }
+        }
+        return hashes.get(0);
+    }
+
+    /**
+     *
+     * @param op
+     * @param uid
+     * @param plan
+     */
+    private void queuePlan(BulkRounds op, String uid, TemporalWritePlan plan)
+    {
+        Instant openEnd = this.recordFactory.openEnd();
+
+        for (ObjectId id : plan.getDeletes())
+            op.find(uid, dbObject("_id", id)).remove();
+
+        for (Version version : plan.getUpdates())
+        {
+            BasicDBObject set = dbObject();
+            if (version.hasStartChanged())
+                set.append("validity_start", version.getStart());
+            if (version.hasEndChanged())
+                set.append("validity_end", version.isOpen() ? openEnd : version.getEnd());
+
+            op.find(uid, dbObject("_id", version.getId())).updateOne(dbObject("$set", set));
+        }
+
+        for (Version version : plan.getInserts())
+        {
+            BasicDBObject document = new BasicDBObject(version.getDocument())
+                .append("_id", version.getId())
+                .append("validity_start", version.getStart())
+                .append("validity_end", version.isOpen() ? openEnd : version.getEnd());
+
+            op.insert(uid, document);
+        }
+    }
+
+    /**
+     *
+     * @param uids
+     * @return Every stored version of the provided uids.
+     */
+    private Map<String, List<Version>> fetchTimelines(Collection<String> uids)
+    {
+        BasicDBObject projection = dbObject()
+            .append("uid", 1)
+            .append("hash", 1)
+            .append("validity_start", 1)
+            .append("validity_end", 1);
+
+        Map<String, List<Version>> timelines = new HashMap<>();
+        try (DBCursor cursor = this.collection.find(this.uidCriteria(uids), projection)) {
+            for (DBObject document : cursor)
+            {
+                BasicDBObject version = (BasicDBObject) document;
+                timelines.computeIfAbsent(RecordFactory.decodeUid(version.get("uid")), uid -> new ArrayList<>()).add(Version.stored(
+                    version.getObjectId("_id"),
+                    RecordFactory.decodeHash(version.get("hash")),
+                    DBObjects.getInstantOrNull(version, "validity_start"),
+                    RecordFactory.decodeValidityEnd(version)
+                ));
+            }
+        }
+        return timelines;
+    }
+
+    /**
+     * Splits the provided items into chunks of at most chunkSize items (without ever splitting a uid) and writes each chunk in its own transaction.
+     * Chunks are written concurrently when a chunk executor is configured, sequentially otherwise.
+     * Writes aren't bound to the session of their transaction, so a failed chunk may have been partially written: putting it again is what the report's uids are for.
+     *
+     * @param items
+     * @param referential
+     * @param transcriber
+     * @return A report holding the outcome of each chunk, failed chunks do not prevent the others from being committed.
+     */
+    public ChunkedPutReport putChunked(Collection<R> items, Referential referential, Transcriber<BasicDBObject, R> transcriber)
+    {
+        return this.putReferentializedChunked(referentialize(items, resolveReferential(referential)), transcriber);
+    }
+
+    /**
+     *
+     * @param referentializedItems
+     * @param transcriber
+     * @return A report holding the outcome of each chunk, failed chunks do not prevent the others from being committed.
+     */
+    public ChunkedPutReport putReferentializedChunked(Collection<Referentialized<R>> referentializedItems, Transcriber<BasicDBObject, R> transcriber)
+    {
+        return this.putChunked(resolve(referentializedItems), chunk -> this.runTransaction(() -> {
+            BulkRounds op = this.newBulk();
+            this.queueReferentialized(op, chunk, transcriber);
+            op.execute();
+            return new PutReport(chunk.size(), 0, 0);
+        }));
+    }
+
+    /**
+     *
+     * @param items
+     * @param writer
+     * @return
+     */
+    private ChunkedPutReport putChunked(Collection<Referentialized<R>> items, Function<List<Referentialized<R>>, PutReport> writer)
+    {
+        /* Uids have to be assigned before partitioning, otherwise new records would all end up in the same "null" group */
+        for (Referentialized<R> item : items)
+        {
+            if (item.record.getUid() == null)
+                item.record.setUid(UidHolder.generateUid());
+        }
+
+        int size = this.chunkSize > 0 ? this.chunkSize : Math.max(items.size(), 1);
+        List<List<Referentialized<R>>> chunks = Chunks.partitionByUid(items, item -> item.record.getUid(), size);
+        List<CompletableFuture<PutReport>> futures = new ArrayList<>(chunks.size());
+
+        for (List<Referentialized<R>> chunk : chunks)
+        {
+            if (this.chunkExecutor != null)
+                futures.add(CompletableFuture.supplyAsync(() -> writer.apply(chunk), this.chunkExecutor));
+            else {
+                CompletableFuture<PutReport> future = new CompletableFuture<>();
+                try {
+                    future.complete(writer.apply(chunk));
+                }
+                catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+                futures.add(future);
+            }
+        }
+
+        List<ChunkedPutReport.Chunk> results = new ArrayList<>(chunks.size());
+        List<Referentialized<R>> committed = new ArrayList<>(items.size());
+        List<Referentialized<R>> failed = new ArrayList<>();
+        for (int i = 0 ; i < chunks.size() ; ++i)
+        {
+            List<Referentialized<R>> chunk = chunks.get(i);
+            Set<String> uids = new LinkedHashSet<>();
+            for (Referentialized<R> item : chunk)
+                uids.add(item.record.getUid());
+
+            try {
+                results.add(ChunkedPutReport.Chunk.success(i, chunk.size(), uids, futures.get(i).join()));
+                committed.addAll(chunk);
+            }
+            catch (CompletionException e) {
+                RuntimeException cause = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                results.add(ChunkedPutReport.Chunk.failure(i, chunk.size(), uids, cause));
+                failed.addAll(chunk);
+            }
+        }
+
+        /* A failed chunk may have been partially written, listeners are told about it as a failure rather than left unaware */
+        if (!committed.isEmpty())
+            this.notifyWrite(committed, true);
+        if (!failed.isEmpty())
+            this.notifyWrite(failed, false);
+
+        return new ChunkedPutReport(results);
+    }
+
+    /**
+     * Notifies the commit listeners of a write, whatever its outcome: writes aren't bound to the transaction's session, so even an aborted one may have been partially applied.
+     *
+     * @param items
+     * @param committed
+     */
+    private void notifyWrite(Collection<Referentialized<R>> items, boolean committed)
+    {
+        if (this.commitListeners.isEmpty())
+            return;
+
+        Collection<Referentialized<R>> written = Collections.unmodifiableCollection(items);
+        for (CommitListener<R> listener : this.commitListeners)
+        {
+            if (committed)
+                listener.onCommit(written);
+            else
+                listener.onFailure(written);
+        }
+    }
+
+    /**
+     *
+     * @param items
+     * @param referential
+     * @return
+     */
+    private static <R extends Record<R>> List<Referentialized<R>> referentialize(Collection<R> items, Referential referential)
+    {
+        List<Referentialized<R>> referentialized = new ArrayList<>(items.size());
+        for (R item : items)
+            referentialized.add(new Referentialized<>(item, referential));
+        return referentialized;
+    }
+
+    /**
+     * Turns every "now" referential into a single "at" referential, see resolveReferential.
+     *
+     * @param items
+     * @param <R>
+     * @return
+     */
+    private static <R extends Record<R>> List<Referentialized<R>> resolve(Collection<Referentialized<R>> items)
+    {
+        Referential now = null;
+        List<Referentialized<R>> resolved = new ArrayList<>(items.size());
+        for (Referentialized<R> item : items)
+        {
+            if (!item.referential.isNow())
+                resolved.add(item);
+            else {
+                if (now == null)
+                    now = resolveReferential(item.referential);
+                resolved.add(new Referentialized<>(item.record, now));
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     *
+     * @param items
+     * @param <R>
+     * @return
+     */
+    private static <R extends Record<R>> List<R> records(Collection<Referentialized<R>> items)
+    {
+        List<R> records = new ArrayList<>(items.size());
+        for (Referentialized<R> item : items)
+            records.add(item.record);
+        return records;
+    }
+
+    /**
+     *
+     * @param report
+     */
+    private static void logFailures(ChunkedPutReport report)
+    {
+        for (ChunkedPutReport.Chunk chunk : report.getFailures())
+        {
+            RuntimeException e = chunk.getFailure();
+            Logging.logger.error("Record insertion aborted for chunk #" + chunk.getIndex() + " (" + chunk.getSize() + " items): " + e.getMessage() + " (" + e.getClass().getName() + ")", e);
+        }
+    }
+
+    /**
+     *
+     * @param operation
+     * @param successMessage
+     * @param failureMessage
+     * @return true if the transaction was committed, false if it was aborted (the failure is then logged)
+     */
+    protected boolean executeTransaction(Runnable operation, String successMessage, String failureMessage)
+    {
+        if (!this.hasEnabledTransactions()) {
+            operation.run();
+            return true;
+        }
+
+        try {
+            this.runTransaction(() -> {
+                operation.run();
+                return successMessage;
+            });
+            return true;
+        }
+        catch (RuntimeException e) {
+            Logging.logger.error(failureMessage + ": " + e.getMessage() + " (" + e.getClass().getName() + ")", e);
+            return false;
+        }
+    }
+
+    /**
+     * Runs the provided operation within a transaction if they are enabled, directly otherwise.
+     * Unlike executeTransaction, failures are propagated to the caller.
+     *
+     * @param operation
+     * @param <T>
+     * @return
+     */
+    protected <T> T runTransaction(TransactionBody<T> operation)
+    {
+        if (!this.hasEnabledTransactions())
+            return operation.execute();
+
+        try (ClientSession session = this.client.db().getMongoClient().startSession()) {
+            TransactionOptions txnOptions = TransactionOptions.builder()
+                .readPreference(ReadPreference.primary())
+                .readConcern(ReadConcern.LOCAL)
+                .writeConcern(WriteConcern.MAJORITY)
+                .build();
+
+            return session.withTransaction(operation, txnOptions);
         }
     }
 
@@ -420,6 +1465,224 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
         return this.afterMap(map);
     }
 
+    /**
+     * Finds a record without any Filter, decoding it with the record codec if one is set.
+     *
+     * @param query
+     * @return
+     */
+    protected R findDecoded(BasicDBObject query)
+    {
+        if (this.codecCollection == null)
+            return this.findByDbObject(query, new Filter());
+
+        return this.afterFind(this.codecCollection.find(query).first());
+    }
+
+    /**
+     * Lists records without any Filter, decoding them with the record codec if one is set.
+     *
+     * @param query
+     * @return
+     */
+    protected List<R> listDecoded(BasicDBObject query)
+    {
+        if (this.codecCollection == null)
+            return this.listByDbObject(query, new Filter());
+
+        return this.afterList(this.codecCollection.find(query).batchSize(this.streamBatchSize).into(new ArrayList<>()));
+    }
+
+    @Override
+    public Stream<R> stream(Query query)
+    {
+        return this.stream(query, Referential.now());
+    }
+
+    @Override
+    public Stream<R> stream(Query query, Referential referential)
+    {
+        BasicDBObject dbObject = (BasicDBObject) this.buildQuery(query);
+
+        dbObject = this.applyReferentialCriteria(dbObject, referential);
+
+        return this.streamByDbObject(dbObject);
+    }
+
+    /**
+     * Streams the entities matching a custom query description as raw documents, see LazyRecord.
+     * The stream holds a database cursor and has to be closed.
+     *
+     * @param query
+     * @param referential
+     * @return
+     */
+    public Stream<LazyRecord<R>> streamLazy(Query query, Referential referential)
+    {
+        BasicDBObject dbObject = (BasicDBObject) this.buildQuery(query);
+
+        dbObject = this.applyReferentialCriteria(dbObject, referential);
+
+        MongoCursor<RawBsonDocument> cursor = this.mongoCollection
+            .withDocumentClass(RawBsonDocument.class)
+            .find(dbObject)
+            .batchSize(this.streamBatchSize)
+            .iterator();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .map(raw -> new LazyRecord<>(raw, this::decodeRaw))
+            .onClose(cursor::close);
+    }
+
+    /**
+     *
+     * @param query
+     * @param referential
+     * @return
+     */
+    public List<LazyRecord<R>> listLazy(Query query, Referential referential)
+    {
+        try (Stream<LazyRecord<R>> stream = this.streamLazy(query, referential)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Decodes a raw document with the record codec if one is set, with the store's Factory otherwise.
+     *
+     * @param raw
+     * @return
+     */
+    private R decodeRaw(RawBsonDocument raw)
+    {
+        if (this.documentCodec != null)
+            return raw.decode(this.documentCodec);
+
+        return this.buildRecord(raw.decode(this.mongoCollection.getCodecRegistry().get(BasicDBObject.class)));
+    }
+
+    @Override
+    public void forEach(Query query, Referential referential, Consumer<R> action)
+    {
+        try (Stream<R> stream = this.stream(query, referential)) {
+            stream.forEachOrdered(action);
+        }
+    }
+
+    @Override
+    public Page<R> page(Query query, int size, String token)
+    {
+        return this.page(query, Referential.now(), size, token);
+    }
+
+    /**
+     * The page relies on the (uid, validity_start) unique index, which makes the pair a total order over versions.
+     *
+     * @param query
+     * @param referential
+     * @param size
+     * @param token
+     * @return
+     * @throws IllegalArgumentException If the provided token is invalid.
+     */
+    @Override
+    public Page<R> page(Query query, Referential referential, int size, String token)
+    {
+        if (size < 1)
+            throw new IllegalArgumentException("The page size has to be strictly positive.");
+
+        BasicDBObject dbObject = (BasicDBObject) this.buildQuery(query);
+
+        dbObject = this.applyReferentialCriteria(dbObject, referential);
+
+        if (token != null)
+            dbObject = dbObject("$and", dbList(dbObject, this.keysetCriteria(token)));
+
+        BasicDBObject order = dbObject("uid", 1).append("validity_start", 1);
+        List<R> items = new ArrayList<>(size);
+        if (this.codecCollection != null)
+            this.codecCollection.find(dbObject).sort(order).limit(size + 1).into(items);
+        else {
+            try (DBCursor cursor = this.collection.find(dbObject).sort(order).limit(size + 1)) {
+                while (cursor.hasNext())
+                    items.add(this.buildRecord((BasicDBObject) cursor.next()));
+            }
+        }
+
+        if (items.size() <= size)
+            return new Page<>(items, null);
+
+        items = items.subList(0, size);
+        return new Page<>(items, pageToken(items.get(size - 1)));
+    }
+
+    /**
+     *
+     * @param record
+     * @return A token encoding the (uid, validity_start) of the provided record, the pair is unique so no further tie-breaker is needed.
+     */
+    private static String pageToken(Record<?> record)
+    {
+        /* The uid comes last as it is the only component that could contain the separator */
+        String key = record.getValidityStart().toEpochMilli() + ":" + record.getUid();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Comparison operators only match values of the same BSON type, whereas the sort orders uids by type first.
+     * With compact encoding, UUID uids are stored as binaries and other uids as strings, which come first: a page ending on a string uid has to carry on with every binary uid.
+     *
+     * @param token
+     * @return A query matching the versions that come after the one described by the provided token.
+     */
+    private BasicDBObject keysetCriteria(String token)
+    {
+        String[] key;
+        Instant start;
+        try {
+            key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 2);
+            start = Instant.ofEpochMilli(Long.parseLong(key[0]));
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("The provided page token is invalid.", e);
+        }
+        if (key.length != 2)
+            throw new IllegalArgumentException("The provided page token is invalid.");
+
+        Object uid = this.recordFactory.encodeUid(key[1]);
+
+        BasicDBList criteria = dbList(
+            dbObject("uid", dbObject("$gt", uid)),
+            dbObject("uid", uid).append("validity_start", dbObject("$gt", start))
+        );
+        if (uid instanceof String)
+            criteria.add(dbObject("uid", dbObject("$type", "binData")));
+
+        return dbObject("$or", criteria);
+    }
+
+    /**
+     * Unlike listByDbObject, records are decoded one at a time as the cursor is consumed, and the afterList hook isn't applied.
+     *
+     * @param query
+     * @return
+     */
+    protected Stream<R> streamByDbObject(DBObject query)
+    {
+        if (this.codecCollection != null) {
+            MongoCursor<R> cursor = this.codecCollection.find((BasicDBObject) query).batchSize(this.streamBatchSize).iterator();
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+        }
+
+        DBCursor cursor = this.collection.find(query).batchSize(this.streamBatchSize);
+
+        /* DBCursor.iterator() would return a copy of the cursor, the cursor itself is used as the iterator so that closing the stream closes it */
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize((Iterator<DBObject>) cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .map(obj -> this.buildRecord((BasicDBObject) obj))
+            .onClose(cursor::close);
+    }
+
     @Override
     public <S> Map<S, String> mapUidBySourceIds(Source<S, R> source, Collection<S> ids)
     {
@@ -429,7 +1692,26 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     @Override
     public <S> Map<S, String> mapUidBySourceIds(Source<S, R> source, Collection<S> ids, Referential referential)
     {
-        return this.mapBySourceIds(source, ids, doc -> doc.getList("uid", String.class).get(0), referential);
+        return this.mapBySourceIds(source, ids, doc -> RecordFactory.decodeUid(doc.getList("uid", Object.class).get(0)), referential);
+    }
+
+    @Override
+    public Map<AbstractSource<?, R>, Map<Object, String>> mapUidBySources(Map<AbstractSource<?, R>, ? extends Collection<?>> ids)
+    {
+        return this.mapUidBySources(ids, Referential.now());
+    }
+
+    @Override
+    public Map<AbstractSource<?, R>, Map<Object, String>> mapUidBySources(Map<AbstractSource<?, R>, ? extends Collection<?>> ids, Referential referential)
+    {
+        return SourceAggregations.mapBySources(
+            this.mongoCollection,
+            ids,
+            criteria -> this.applyReferentialCriteria(criteria, referential),
+            doc -> RecordFactory.decodeUid(doc.getList("uid", Object.class).get(0)),
+            this.sourceChunkSize,
+            this.sourceExecutor
+        );
     }
 
     /**
@@ -444,37 +1726,137 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
      */
     protected <S, T> Map<S, T> mapBySourceIds(Source<S, R> source, Collection<S> ids, Builder<Document, T> builder, Referential referential)
     {
-        Map<S, T> map = new HashMap<>();
+        return SourceAggregations.mapBySourceIds(
+            this.mongoCollection,
+            source,
+            ids,
+            criteria -> this.applyReferentialCriteria(criteria, referential),
+            builder,
+            this.sourceChunkSize,
+            this.sourceExecutor
+        );
+    }
+
+    /**
+     *
+     * @return
+     */
+    private BulkRounds newBulk()
+    {
+        return new BulkRounds(this.collection, this.hasOrderedWrites());
+    }
 
-        if (!ids.isEmpty())
-        {
-            var aggregationResult = this.mongoCollection.aggregate(
-                List.of(
-                    Aggregates.match(applyReferentialCriteria(Filters.in(source.queryName(), ids), referential)),
-                    Aggregates.group("$" + source.queryName(), Accumulators.addToSet("uid", "$uid"))
-                )
-            );
+    /**
+     * Fetches the uid, hash and validity of every stored version that is relevant to a put at the provided referential.
+     * For a "time ray" these are the versions valid at the insertion point, for a "time segment" these are the versions overlapping it.
+     *
+     * @param uids
+     * @param referential A resolved referential, see resolveReferential
+     * @return
+     */
+    private Map<String, List<BasicDBObject>> fetchOverlappingVersions(Collection<String> uids, Referential referential)
+    {
+        BasicDBObject query;
+
+        if (referential.isAt())
+            query = this.applyReferentialCriteria(this.uidCriteria(uids), referential);
+        else if (referential.isBetween()) {
+            /* Open versions are left out: none of the "time segment" operations match an open validity_end */
+            query = this.uidCriteria(uids)
+                .append("validity_start", dbObject("$lte", referential.asBetween().getTo()))
+                .append("validity_end", this.closedEnd("$gte", referential.asBetween().getFrom()));
+        }
+        else if (referential.isAny())
+            throw new IllegalArgumentException("Cannot use Referential.any() for insertion.");
+        else
+            throw new IllegalArgumentException("The provided Referential instance is in an unknown state.");
 
-            aggregationResult.forEach((Consumer<? super Document>) doc -> {
-                var sourceId = doc.get("_id", source.type());
-                var value = builder.build(doc);
+        BasicDBObject projection = dbObject()
+            .append("_id", 0)
+            .append("uid", 1)
+            .append("hash", 1)
+            .append("validity_start", 1)
+            .append("validity_end", 1);
 
-                map.put(sourceId, value);
-            });
+        /*
+         * The projection only holds fields of the timeline index, so the planner can cover the read with it once it is built (and as long as open versions aren't matched through a null validity_end).
+         * It isn't hinted: collections where it doesn't exist yet, or is still being built, are read through the uid indexes instead of failing.
+         */
+        Map<String, List<BasicDBObject>> versions = new HashMap<>();
+        try (DBCursor cursor = this.collection.find(query, projection)) {
+            for (DBObject version : cursor)
+                versions.computeIfAbsent(RecordFactory.decodeUid(version.get("uid")), uid -> new ArrayList<>()).add((BasicDBObject) version);
         }
+        return versions;
+    }
 
-        return map;
+    /**
+     * Checks whether a put of the provided hash at the provided referential would leave the stored history unchanged.
+     * A "time ray" is covered by an open version with the same hash, a "time segment" by a closed version with the same hash that spans it.
+     *
+     * @param versions
+     * @param hashes The hashes of the item under each accepted strategy, see hashes
+     * @param referential A resolved referential, see resolveReferential
+     * @return
+     */
+    private static boolean isCovered(List<BasicDBObject> versions, List<String> hashes, Referential referential)
+    {
+        for (BasicDBObject version : versions)
+        {
+            if (!hashes.contains(RecordFactory.decodeHash(version.get("hash"))))
+                continue;
+
+            Instant start = DBObjects.getInstantOrNull(version, "validity_start");
+            Instant end = RecordFactory.decodeValidityEnd(version);
+
+            if (referential.isAt() && end == null && !start.isAfter(referential.asAt().getAt()))
+                return true;
+            if (referential.isBetween()
+                && end != null
+                && !start.isAfter(referential.asBetween().getFrom())
+                && !end.isBefore(referential.asBetween().getTo())
+            )
+                return true;
+        }
+        return false;
     }
 
     /**
      *
-     * @param op
+     * @param item
+     * @param start
+     * @return
+     */
+    private static BasicDBObject openVersion(Record<?> item, Instant start)
+    {
+        return dbObject()
+            .append("uid", item.getUid())
+            .append("hash", item.getHash())
+            .append("validity_start", Date.from(start))
+            .append("validity_end", null);
+    }
+
+    /**
+     * Turns a Referential.now() into the equivalent Referential.at() so that a whole batch can be written against the same point in time.
+     *
      * @param referential
+     * @return
+     */
+    protected static Referential resolveReferential(Referential referential)
+    {
+        if (referential.isNow())
+            return Referential.at(Instant.now());
+        return referential;
+    }
+
+    /**
+     * Transcribes the provided item, assigns its uid if it doesn't have one yet and computes its hash.
+     *
      * @param item
      * @param transcriber
-     * @throws IllegalArgumentException If the provided Referential is a Referential.any() instance or if it's in an unknown state.
+     * @return The enriched transcript, ready for insertion.
      */
-    private void addPutOperation(BulkWriteOperation op, Referential referential, R item, Transcriber<BasicDBObject, R> transcriber)
+    protected BasicDBObject prepare(R item, Transcriber<BasicDBObject, R> transcriber)
     {
         BasicDBObject obj = transcriber.transcript(item);
 
@@ -482,7 +1864,79 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
             item.setUid(UidHolder.generateUid());
         item.setHash(this.hash(obj));
 
-        obj = this.recordFactory.enrichTranscript(item, obj);
+        /* Accepted strategies have to hash the transcript as the Transcriber produced it, before any of the fields added below */
+        if (!this.acceptedHashStrategies.isEmpty())
+            obj = new PreparedTranscript(obj, this.acceptedHashes(item.getHash(), obj));
+
+        return this.recordFactory.enrichTranscript(item, obj)
+            .append("hash_strategy", this.hashStrategy.name());
+    }
+
+    /**
+     * Produces the stored form of an item as it stands, without assigning a uid nor computing a hash.
+     *
+     * @param item
+     * @return
+     */
+    protected BasicDBObject storedForm(R item)
+    {
+        BasicDBObject obj = this.recordFactory.enrichTranscript(item, this.factory.transcript(item))
+            .append("validity_start", item.getValidityStart())
+            .append("validity_end", item.getValidityEnd() != null ? item.getValidityEnd() : this.recordFactory.openEnd());
+
+        if (item.getId() != null)
+            obj.append("_id", new ObjectId(item.getId()));
+        if (item.getHash() != null)
+            obj.append("hash_strategy", this.hashStrategy.name());
+
+        return obj;
+    }
+
+    /**
+     * Prepares each of the provided items, concurrently if a preparation pool has been configured.
+     *
+     * @param items
+     * @param transcriber
+     * @return The enriched transcripts, in the same order as the provided items.
+     */
+    protected List<BasicDBObject> prepare(List<R> items, Transcriber<BasicDBObject, R> transcriber)
+    {
+        if (this.preparationPool == null || items.size() < 2) {
+            List<BasicDBObject> transcripts = new ArrayList<>(items.size());
+            for (R item : items)
+                transcripts.add(this.prepare(item, transcriber));
+            return transcripts;
+        }
+
+        /* Uids are assigned beforehand so that an item appearing several times in the batch cannot end up with two different uids */
+        for (R item : items)
+        {
+            if (item.getUid() == null)
+                item.setUid(UidHolder.generateUid());
+        }
+
+        /* A parallel stream started from within a ForkJoinPool task runs on that pool instead of the common one */
+        return this.preparationPool.submit(() -> items.parallelStream()
+            .map(item -> this.prepare(item, transcriber))
+            .collect(Collectors.toList())
+        ).join();
+    }
+
+    /**
+     *
+     * @param op
+     * @param referential
+     * @param item
+     * @param obj The transcript produced by prepare for this item
+     * @throws IllegalArgumentException If the provided Referential is a Referential.any() instance or if it's in an unknown state.
+     */
+    private void addPutOperation(BulkRounds op, Referential referential, R item, BasicDBObject obj)
+    {
+        /* The uid and hash are queried in their stored form, the hash matching any accepted strategy */
+        Object uid = this.recordFactory.encodeUid(item.getUid());
+        List<String> hashes = this.hashes(item, obj);
+        Object hash = this.hashCriteria(hashes, false);
+        Object otherHash = this.hashCriteria(hashes, true);
 
         /*
          * A "now" or "at" referential represents the insertion of a "time ray" ("half-line") in the history.
@@ -501,43 +1955,37 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
              * If it exists we ensure it is "open" by setting the validity_end field to null and updating the validity_start if the new one is before the current one.
              * Otherwise we will perform the insert.
              */
-            var currentQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", item.getHash())
-                .append(
-                    "$or", dbList(
-                        new BasicDBObject("validity_end", null),
-                        new BasicDBObject("validity_end", new BasicDBObject("$gte", start))
-                    )
-                );
+            var currentQuery = this.withOpenOrEndingAfter(
+                new BasicDBObject()
+                    .append("uid", uid)
+                    .append("hash", hash),
+                "$gte", start
+            );
             var currentUpsert = new BasicDBObject()
-                .append("$set", new BasicDBObject("validity_end", null))
+                .append("$set", new BasicDBObject("validity_end", this.recordFactory.openEnd()))
                 .append("$min", new BasicDBObject("validity_start", start))
                 .append("$setOnInsert", obj);
 
             /* Full overlaps have to be removed */
             var previousFullOverlapQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", new BasicDBObject("$ne", item.getHash()))
+                .append("uid", uid)
+                .append("hash", otherHash)
                 .append("validity_start", new BasicDBObject("$gte", start));
-
-            /* Partial overlaps have to be truncated */
-            var previousPartialOverlapQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", new BasicDBObject("$ne", item.getHash()))
-                .append("validity_start", new BasicDBObject("$lt", start))
-                .append(
-                    "$or", dbList(
-                        new BasicDBObject("validity_end", null),
-                        new BasicDBObject("validity_end", new BasicDBObject("$gt", start))
-                    )
-                );
+
+            /* Partial overlaps have to be truncated */
+            var previousPartialOverlapQuery = this.withOpenOrEndingAfter(
+                new BasicDBObject()
+                    .append("uid", uid)
+                    .append("hash", otherHash)
+                    .append("validity_start", new BasicDBObject("$lt", start)),
+                "$gt", start
+            );
             var previousPartialOverlapUpdate = new BasicDBObject()
                 .append("$set", new BasicDBObject("validity_end", start));
 
-            op.find(previousFullOverlapQuery).remove();
-            op.find(currentQuery).upsert().updateOne(currentUpsert);
-            op.find(previousPartialOverlapQuery).updateOne(previousPartialOverlapUpdate);
+            op.find(item.getUid(), previousFullOverlapQuery).remove();
+            op.find(item.getUid(), currentQuery).upsert().updateOne(currentUpsert);
+            op.find(item.getUid(), previousPartialOverlapQuery).updateOne(previousPartialOverlapUpdate);
         }
         /*
          * A "between" referential represents the insertion of a "time segment" in the history.
@@ -560,55 +2008,55 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
              * If it exists we update its validity interval so the largest time segment is used. Otherwise we will perform the insert.
              */
             var currentQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", item.getHash())
+                .append("uid", uid)
+                .append("hash", hash)
                 .append(
                     "$or", dbList(
                         new BasicDBObject()
                             .append("validity_start", new BasicDBObject("$lte", from))
-                            .append("validity_end", new BasicDBObject("$gte", from)),
+                            .append("validity_end", this.closedEnd("$gte", from)),
                         new BasicDBObject()
                             .append("validity_start", new BasicDBObject("$lte", to))
-                            .append("validity_end", new BasicDBObject("$gte", to)),
+                            .append("validity_end", this.closedEnd("$gte", to)),
                         new BasicDBObject()
                             .append("validity_start", new BasicDBObject("$gte", from))
-                            .append("validity_end", new BasicDBObject("$lte", to))
+                            .append("validity_end", this.closedEnd("$lte", to))
                     )
                 );
             var currentUpsert = new BasicDBObject()
                 .append("$min", new BasicDBObject("validity_start", from))
                 .append("$max", new BasicDBObject("validity_end", to))
-                .append("$setOnInsert", transcriber.transcript(item));
+                .append("$setOnInsert", obj);
 
             /* Full overlaps have to be removed */
             var previousFullOverlapQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", new BasicDBObject("$ne", item.getHash()))
+                .append("uid", uid)
+                .append("hash", otherHash)
                 .append("validity_start", new BasicDBObject("$gte", from))
-                .append("validity_end", new BasicDBObject("$lte", to));
+                .append("validity_end", this.closedEnd("$lte", to));
 
             /* Partial overlaps from the left side have to be truncated on the right side */
             var previousPartialLeftOverlapQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", new BasicDBObject("$ne", item.getHash()))
+                .append("uid", uid)
+                .append("hash", otherHash)
                 .append("validity_start", new BasicDBObject("$lt", from))
-                .append("validity_end", new BasicDBObject("$gt", from));
+                .append("validity_end", this.closedEnd("$gt", from));
             var previousPartialLeftOverlapUpdate = new BasicDBObject()
                 .append("$set", new BasicDBObject("validity_end", from));
 
             /* Partial overlaps from the right side have to be truncated on the left side */
             var previousPartialRightOverlapQuery = new BasicDBObject()
-                .append("uid", item.getUid())
-                .append("hash", new BasicDBObject("$ne", item.getHash()))
+                .append("uid", uid)
+                .append("hash", otherHash)
                 .append("validity_start", new BasicDBObject("$lt", to))
-                .append("validity_end", new BasicDBObject("$gt", to));
+                .append("validity_end", this.closedEnd("$gt", to));
             var previousPartialRightOverlapUpdate = new BasicDBObject()
                 .append("$set", new BasicDBObject("validity_start", to));
 
-            op.find(previousFullOverlapQuery).remove();
-            op.find(currentQuery).upsert().updateOne(currentUpsert);
-            op.find(previousPartialLeftOverlapQuery).updateOne(previousPartialLeftOverlapUpdate);
-            op.find(previousPartialRightOverlapQuery).updateOne(previousPartialRightOverlapUpdate);
+            op.find(item.getUid(), previousFullOverlapQuery).remove();
+            op.find(item.getUid(), currentQuery).upsert().updateOne(currentUpsert);
+            op.find(item.getUid(), previousPartialLeftOverlapQuery).updateOne(previousPartialLeftOverlapUpdate);
+            op.find(item.getUid(), previousPartialRightOverlapQuery).updateOne(previousPartialRightOverlapUpdate);
         }
         else if (referential.isAny())
             throw new IllegalArgumentException("Cannot use Referential.any() for insertion.");
@@ -634,19 +2082,13 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
 
             validityFilter = Filters.and(
                 Filters.lte("validity_start", at),
-                Filters.or(
-                    Filters.eq("validity_end", null),
-                    Filters.gt("validity_end", at)
-                )
+                this.openOrEndingAfter(at)
             );
         }
         else if (referential.isBetween()) {
             validityFilter = Filters.and(
                 Filters.lte("validity_start", referential.asBetween().getFrom()),
-                Filters.or(
-                    Filters.eq("validity_end", null),
-                    Filters.gt("validity_end", referential.asBetween().getTo())
-                )
+                this.openOrEndingAfter(referential.asBetween().getTo())
             );
         }
         else
@@ -671,24 +2113,16 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
         else if (referential.isNow() || referential.isAt()) {
             Instant at = referential.isNow() ? Instant.now() : referential.asAt().getAt();
 
-            validityCriteria = dbObject()
-                .append("validity_start", dbObject("$lte", at))
-                .append(
-                    "$or", dbList(
-                        dbObject("validity_end", null),
-                        dbObject("validity_end", dbObject("$gt", at))
-                    )
-                );
+            validityCriteria = this.withOpenOrEndingAfter(
+                dbObject("validity_start", dbObject("$lte", at)),
+                "$gt", at
+            );
         }
         else if (referential.isBetween()) {
-            validityCriteria = dbObject()
-                .append("validity_start", dbObject("$lte", referential.asBetween().getFrom()))
-                .append(
-                    "$or", dbList(
-                        dbObject("validity_end", null),
-                        dbObject("validity_end", dbObject("$gt", referential.asBetween().getTo()))
-                    )
-                );
+            validityCriteria = this.withOpenOrEndingAfter(
+                dbObject("validity_start", dbObject("$lte", referential.asBetween().getFrom())),
+                "$gt", referential.asBetween().getTo()
+            );
         }
         else
             throw new IllegalArgumentException("The provided Referential instance is in an unknown state.");
@@ -705,97 +2139,152 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
     }
 
     /**
+     * Adds to the provided query a criteria matching open versions as well as versions whose validity_end compares to the provided instant.
+     * With the open end sentinel, open versions are matched by the comparison itself instead of requiring a union with a null match.
      *
-     * @param obj
+     * @param query
+     * @param operator Either $gt or $gte
+     * @param instant
      * @return
      */
-    private String hash(BasicDBObject obj)
+    protected BasicDBObject withOpenOrEndingAfter(BasicDBObject query, String operator, Instant instant)
+    {
+        if (this.recordFactory.hasOpenEndSentinel())
+            return query.append("validity_end", dbObject(operator, instant));
+
+        return query.append(
+            "$or", dbList(
+                dbObject("validity_end", null),
+                dbObject("validity_end", dbObject(operator, instant))
+            )
+        );
+    }
+
+    /**
+     *
+     * @param instant
+     * @return A filter matching open versions as well as versions ending strictly after the provided instant.
+     */
+    protected Bson openOrEndingAfter(Instant instant)
     {
-        byte[] bsonBytes = toBson(canonicalizeBSONObject(obj));
-        return Long.toHexString(this.hashFunction.hashBytes(bsonBytes));
+        if (this.recordFactory.hasOpenEndSentinel())
+            return Filters.gt("validity_end", instant);
+
+        return Filters.or(
+            Filters.eq("validity_end", null),
+            Filters.gt("validity_end", instant)
+        );
     }
 
     /**
+     * Produces a comparison on validity_end that never matches open versions, which is how a null validity_end behaves with comparison operators.
      *
-     * @param dbObject
+     * @param operator
+     * @param instant
      * @return
      */
-    private static byte[] toBson(final DBObject dbObject)
+    protected BasicDBObject closedEnd(String operator, Instant instant)
     {
-        OutputBuffer outputBuffer = new BasicOutputBuffer();
-        MongoClientSettings.getDefaultCodecRegistry()
-            .get(DBObject.class)
-            .encode(
-                new BsonBinaryWriter(outputBuffer),
-                dbObject,
-                EncoderContext.builder().build()
-            );
-        return outputBuffer.toByteArray();
+        BasicDBObject comparison = dbObject(operator, instant);
+        if (this.recordFactory.hasOpenEndSentinel())
+            comparison.append("$lt", RecordFactory.OPEN_END);
+        return comparison;
     }
 
     /**
-     * create a copy of "from", but with keys ordered alphabetically
      *
-     * @param from
+     * @param uid
+     * @return A query matching the provided uid in its stored form.
+     */
+    protected BasicDBObject uidCriteria(String uid)
+    {
+        return dbObject("uid", this.recordFactory.encodeUid(uid));
+    }
+
+    /**
+     *
+     * @param uids
+     * @return A query matching any of the provided uids in their stored form.
+     */
+    protected BasicDBObject uidCriteria(Collection<String> uids)
+    {
+        return dbObject("uid", dbObject("$in", this.recordFactory.encodeUids(uids)));
+    }
+
+    RecordFactory<R> recordFactory()
+    {
+        return this.recordFactory;
+    }
+
+    DBCollection recordCollection()
+    {
+        return this.collection;
+    }
+
+    Transcriber<BasicDBObject, R> recordTranscriber()
+    {
+        return this.factory;
+    }
+
+    /**
+     *
+     * @param obj
      * @return
      */
-    @SuppressWarnings("unchecked")
-    private static Object canonicalize(final Object from)
+    private String hash(BasicDBObject obj)
     {
-        if (from instanceof BSONObject && !(from instanceof BasicBSONList))
-            return canonicalizeBSONObject((BSONObject) from);
-        /* BasicBSONList extends ArrayList, so it falls in this category */
-        else if (from instanceof List)
-            return canonicalizeList((List<Object>) from);
-        else if (from instanceof Map)
-            return canonicalizeMap((Map<String, Object>) from);
-        return from;
+        return this.hashStrategy.hash(obj);
     }
 
     /**
+     * Lists the hashes of an item under its store's strategy and under each accepted strategy: a stored version bearing any of them is considered identical to the item.
      *
-     * @param from
+     * @param item A prepared item
+     * @param obj The transcript produced by prepare for this item
      * @return
      */
-    private static Map<String, Object> canonicalizeMap(final Map<String, Object> from)
+    private List<String> hashes(R item, BasicDBObject obj)
     {
-        Map<String, Object> canonicalized = new LinkedHashMap<>(from.size());
-        TreeSet<String> keysInOrder = new TreeSet<>(from.keySet());
-        for (String key : keysInOrder) {
-            Object val = from.get(key);
-            canonicalized.put(key, canonicalize(val));
-        }
-        return canonicalized;
+        if (obj instanceof PreparedTranscript)
+            return ((PreparedTranscript) obj).hashes;
+        return List.of(item.getHash());
     }
 
     /**
      *
-     * @param from
+     * @param hash The hash of the transcript under the store's strategy
+     * @param transcript The transcript as produced by the Transcriber
      * @return
      */
-    private static DBObject canonicalizeBSONObject(final BSONObject from)
+    private List<String> acceptedHashes(String hash, BasicDBObject transcript)
     {
-        BasicDBObject canonicalized = new BasicDBObject();
-        TreeSet<String> keysInOrder = new TreeSet<>(from.keySet());
-        for (String key : keysInOrder) {
-            Object val = from.get(key);
-            canonicalized.put(key, canonicalize(val));
+        List<String> hashes = new ArrayList<>(1 + this.acceptedHashStrategies.size());
+        hashes.add(hash);
+        for (RecordHashStrategy strategy : this.acceptedHashStrategies)
+        {
+            if (strategy != this.hashStrategy)
+                hashes.add(strategy.hash(transcript));
         }
-        return canonicalized;
+        return hashes;
     }
 
     /**
      *
-     * @param list
-     * @return
+     * @param hashes The hashes of the item, see hashes
+     * @param negate Whether the criteria should match versions with none of the item's hashes instead
+     * @return A criteria on the stored hash.
      */
-    private static List canonicalizeList(final List<Object> list)
+    private Object hashCriteria(List<String> hashes, boolean negate)
     {
-        List<Object> canonicalized = new ArrayList<>(list.size());
-        for (Object cur : list) {
-            canonicalized.add(canonicalize(cur));
+        if (hashes.size() == 1) {
+            Object hash = this.recordFactory.encodeHash(hashes.get(0));
+            return negate ? dbObject("$ne", hash) : hash;
         }
-        return canonicalized;
+
+        BasicDBList encoded = new BasicDBList();
+        for (String hash : hashes)
+            encoded.add(this.recordFactory.encodeHash(hash));
+        return dbObject(negate ? "$nin" : "$in", encoded);
     }
 
     public boolean hasEnabledTransactions()
@@ -808,4 +2297,352 @@ public abstract class MongoDBRecordStore<R extends Record<R>> extends DefaultMon
         this.enabledTransactions = enabledTransactions;
         return this;
     }
+
+    public boolean hasOrderedWrites()
+    {
+        return this.orderedWrites;
+    }
+
+    /**
+     * Ordered writes execute a whole batch as a single ordered bulk operation.
+     * When disabled, only the operations of a given uid are kept in order, operations on different uids are sent as unordered bulks
+     * which the server can apply in parallel.
+     * A failure in one of these bulks skips the following ones for every uid, so uids unrelated to the failure may be left half-written (eg. a removal applied without its upsert):
+     * they are logged along with the failure, and putting them again restores a consistent history.
+     *
+     * @param orderedWrites
+     * @return
+     */
+    public MongoDBRecordStore<R> setOrderedWrites(boolean orderedWrites)
+    {
+        this.orderedWrites = orderedWrites;
+        return this;
+    }
+
+    public int getStreamBatchSize()
+    {
+        return this.streamBatchSize;
+    }
+
+    /**
+     *
+     * @param streamBatchSize The number of documents fetched per round trip by streams.
+     * @return
+     */
+    public MongoDBRecordStore<R> setStreamBatchSize(int streamBatchSize)
+    {
+        if (streamBatchSize < 1)
+            throw new IllegalArgumentException("The stream batch size has to be strictly positive.");
+        this.streamBatchSize = streamBatchSize;
+        return this;
+    }
+
+    public boolean hasPlannedWrites()
+    {
+        return this.plannedWrites;
+    }
+
+    /**
+     * Planned writes load the timeline of each affected uid once per batch and merge the batch's items in memory with a TemporalWritePlanner,
+     * only the resulting inserts, updates and deletes are then sent, by _id.
+     * When disabled, each item is written as 3 or 4 server-side operations that splice its interval into the history.
+     * Plans are computed from a read of the timelines that isn't bound to any session or transaction, so a concurrent writer to the same uid can make a plan stale:
+     * planned writes should only be enabled when a given uid is written by a single writer at a time.
+     *
+     * @param plannedWrites
+     * @return
+     */
+    public MongoDBRecordStore<R> setPlannedWrites(boolean plannedWrites)
+    {
+        this.plannedWrites = plannedWrites;
+        return this;
+    }
+
+    public boolean hasChunking()
+    {
+        return this.chunkSize > 0;
+    }
+
+    public int getChunkSize()
+    {
+        return this.chunkSize;
+    }
+
+    /**
+     * Enables the chunking of batch puts: each chunk of at most chunkSize items is written in its own transaction.
+     * The void put overloads only log the chunks that failed, see putChunked for a report of each chunk's outcome.
+     *
+     * @param chunkSize The maximum number of items per chunk, 0 disables chunking.
+     * @return
+     */
+    public MongoDBRecordStore<R> setChunkSize(int chunkSize)
+    {
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("The chunk size cannot be negative.");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Sets the executor used for committing chunks concurrently, its size effectively bounds the number of concurrent transactions.
+     * The executor's lifecycle remains the caller's responsibility.
+     *
+     * @param chunkExecutor An executor, or null for committing chunks sequentially on the calling thread.
+     * @return
+     */
+    public MongoDBRecordStore<R> setChunkExecutor(ExecutorService chunkExecutor)
+    {
+        this.chunkExecutor = chunkExecutor;
+        return this;
+    }
+
+    public int getSourceChunkSize()
+    {
+        return this.sourceChunkSize;
+    }
+
+    /**
+     * Sets the maximum number of source ids per aggregation, larger id sets are split into several aggregations.
+     * Lookups over several sources are performed in a single aggregation up to that many ids in total, and source by source beyond.
+     *
+     * @param sourceChunkSize
+     * @return
+     */
+    public MongoDBRecordStore<R> setSourceChunkSize(int sourceChunkSize)
+    {
+        if (sourceChunkSize < 1)
+            throw new IllegalArgumentException("The source chunk size has to be strictly positive.");
+        this.sourceChunkSize = sourceChunkSize;
+        return this;
+    }
+
+    /**
+     * Sets the executor used for running the aggregations of a chunked lookup by source ids concurrently.
+     * The executor's lifecycle remains the caller's responsibility.
+     *
+     * @param sourceExecutor An executor, or null for running them sequentially on the calling thread.
+     * @return
+     */
+    public MongoDBRecordStore<R> setSourceExecutor(Executor sourceExecutor)
+    {
+        this.sourceExecutor = sourceExecutor;
+        return this;
+    }
+
+    public boolean hasCompactEncoding()
+    {
+        return this.recordFactory.hasCompactEncoding();
+    }
+
+    /**
+     * See RecordFactory.setCompactEncoding, existing collections have to be converted with a CompactEncodingMigration beforehand.
+     *
+     * @param compactEncoding
+     * @return
+     */
+    public MongoDBRecordStore<R> setCompactEncoding(boolean compactEncoding)
+    {
+        this.recordFactory.setCompactEncoding(compactEncoding);
+        return this;
+    }
+
+    public boolean hasOpenEndSentinel()
+    {
+        return this.recordFactory.hasOpenEndSentinel();
+    }
+
+    /**
+     * See RecordFactory.setOpenEndSentinel, existing collections have to be converted with an OpenIntervalMigration beforehand.
+     *
+     * @param openEndSentinel
+     * @return
+     */
+    public MongoDBRecordStore<R> setOpenEndSentinel(boolean openEndSentinel)
+    {
+        this.recordFactory.setOpenEndSentinel(openEndSentinel);
+        return this;
+    }
+
+    public RecordHashStrategy getHashStrategy()
+    {
+        return this.hashStrategy;
+    }
+
+    /**
+     * Changing the strategy of a store that already holds records makes every stored version look different from its re-import,
+     * see RehashMigration.migrate for switching strategies without producing spurious versions.
+     *
+     * @param hashStrategy
+     * @return
+     */
+    public MongoDBRecordStore<R> setHashStrategy(RecordHashStrategy hashStrategy)
+    {
+        this.hashStrategy = hashStrategy;
+        return this;
+    }
+
+    /**
+     * Makes puts consider stored versions hashed with the provided strategy as well, so that an unchanged record doesn't produce a new version while a collection is being converted.
+     * Each accepted strategy means hashing every put item once more, strategies should be revoked once no stored version relies on them anymore.
+     *
+     * @param strategy
+     * @return
+     */
+    public MongoDBRecordStore<R> acceptHashStrategy(RecordHashStrategy strategy)
+    {
+        this.acceptedHashStrategies.add(strategy);
+        return this;
+    }
+
+    /**
+     *
+     * @param strategy
+     * @return
+     */
+    public MongoDBRecordStore<R> revokeHashStrategy(RecordHashStrategy strategy)
+    {
+        this.acceptedHashStrategies.remove(strategy);
+        return this;
+    }
+
+    public Set<RecordHashStrategy> getAcceptedHashStrategies()
+    {
+        return Collections.unmodifiableSet(this.acceptedHashStrategies);
+    }
+
+    /**
+     * Sets the pool used for preparing batch puts concurrently: transcription, hashing and enrichment of each item are then spread over the pool,
+     * while write operations are still queued in the original order of the batch.
+     * The transcriber in use has to be thread-safe, and the pool's lifecycle remains the caller's responsibility.
+     *
+     * @param preparationPool A pool, or null for preparing items sequentially on the calling thread.
+     * @return
+     */
+    public MongoDBRecordStore<R> setPreparationPool(ForkJoinPool preparationPool)
+    {
+        this.preparationPool = preparationPool;
+        return this;
+    }
+
+    /**
+     * Registers a listener notified after each write performed by this store, through onCommit if it was committed and onFailure otherwise.
+     *
+     * @param listener
+     * @return
+     */
+    public MongoDBRecordStore<R> addCommitListener(CommitListener<R> listener)
+    {
+        this.commitListeners.add(listener);
+        return this;
+    }
+
+    /**
+     *
+     * @param listener
+     * @return
+     */
+    public MongoDBRecordStore<R> removeCommitListener(CommitListener<R> listener)
+    {
+        this.commitListeners.remove(listener);
+        return this;
+    }
+
+    public RecordCache<R> getRecordCache()
+    {
+        return this.recordCache;
+    }
+
+    /**
+     * Sets a cache for the current version of records, used by find and list by uid with a "now" referential (without a Filter).
+     * The cache is invalidated by the puts performed through this store, other writers (including remove operations) are only covered by its time-to-live.
+     * With a cache, list by uid returns records in the order of the provided uids, so that the order doesn't depend on which of them were cached.
+     *
+     * @param recordCache A cache, or null for disabling caching.
+     * @return
+     */
+    public MongoDBRecordStore<R> setRecordCache(RecordCache<R> recordCache)
+    {
+        if (this.recordCache != null)
+            this.removeCommitListener(this.recordCache);
+        this.recordCache = recordCache;
+        if (recordCache != null) {
+            recordCache.setCopier(this::copy);
+            this.addCommitListener(recordCache);
+        }
+        return this;
+    }
+
+    public boolean hasRecordCodec()
+    {
+        return this.codecCollection != null;
+    }
+
+    /**
+     * Sets a codec decoding records straight from BSON instead of going through a BasicDBObject and the store's Factory.
+     * It is used by the reads that don't take a Filter (find and list by uid or Query, findAsOf, stream, forEach and page),
+     * reads with a Filter and every write still go through the Factory, which the codec also uses for encoding.
+     *
+     * @param recordCodec A codec, or null for decoding every read with the Factory.
+     * @return
+     */
+    public MongoDBRecordStore<R> setRecordCodec(RecordCodec<R> recordCodec)
+    {
+        this.documentCodec = recordCodec == null ? null : new RecordDocumentCodec<>(
+            recordCodec,
+            this::storedForm,
+            this.mongoCollection.getCodecRegistry().get(BasicDBObject.class)
+        );
+        this.codecCollection = recordCodec == null ? null : this.mongoCollection
+            .withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(this.documentCodec),
+                this.mongoCollection.getCodecRegistry()
+            ))
+            .withDocumentClass(recordCodec.getRecordClass());
+        return this;
+    }
+
+    public HistoryCache<R> getHistoryCache()
+    {
+        return this.historyCache;
+    }
+
+    /**
+     * Sets a cache for past versions with a closed validity interval, used by find by uid with an "at" referential.
+     * The cache is invalidated by the puts performed through this store, other writers (including remove operations) require a call to its clear method.
+     *
+     * @param historyCache A cache, or null for disabling caching.
+     * @return
+     */
+    public MongoDBRecordStore<R> setHistoryCache(HistoryCache<R> historyCache)
+    {
+        if (this.historyCache != null)
+            this.removeCommitListener(this.historyCache);
+        this.historyCache = historyCache;
+        if (historyCache != null) {
+            historyCache.setCopier(this::copy);
+            this.addCommitListener(historyCache);
+        }
+        return this;
+    }
+
+    /**
+     * The transcript of an item prepared while other hash strategies are accepted, along with the hashes of the transcript as the Transcriber produced it.
+     */
+    private static final class PreparedTranscript extends BasicDBObject
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<String> hashes;
+
+        /**
+         *
+         * @param transcript
+         * @param hashes
+         */
+        private PreparedTranscript(BasicDBObject transcript, List<String> hashes)
+        {
+            super(transcript);
+            this.hashes = hashes;
+        }
+    }
 }
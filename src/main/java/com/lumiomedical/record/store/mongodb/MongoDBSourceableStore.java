@@ -4,9 +4,6 @@ import com.lumiomedical.record.source.Source;
 import com.lumiomedical.record.source.Sourceable;
 import com.lumiomedical.record.store.SourceableStore;
 import com.mongodb.BasicDBObject;
-import com.mongodb.client.model.Accumulators;
-import com.mongodb.client.model.Aggregates;
-import com.mongodb.client.model.Filters;
 import com.noleme.mongodb.MongoDBClient;
 import com.noleme.store.factory.Builder;
 import com.noleme.store.factory.Factory;
@@ -15,10 +12,9 @@ import com.noleme.store.query.Identifiable;
 import org.bson.Document;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 /**
  * @author Pierre Lecerf (plecerf@lumiomedical.com)
@@ -26,6 +22,9 @@ import java.util.function.Consumer;
  */
 public abstract class MongoDBSourceableStore<T extends Identifiable<String> & Sourceable<T>> extends DefaultMongoDBStore<T> implements SourceableStore<T>
 {
+    private int sourceChunkSize;
+    private Executor sourceExecutor;
+
     /**
      *
      * @param client
@@ -34,6 +33,7 @@ public abstract class MongoDBSourceableStore<T extends Identifiable<String> & So
     public MongoDBSourceableStore(MongoDBClient client, Factory<BasicDBObject, T> factory)
     {
         super(client, factory);
+        this.setSourceChunkSize(10_000);
     }
 
     @Override
@@ -53,22 +53,38 @@ public abstract class MongoDBSourceableStore<T extends Identifiable<String> & So
      */
     protected <S, C> Map<S, C> mapBySourceIds(Source<S, T> source, Collection<S> ids, Builder<Document, C> builder)
     {
-        var aggregationResult = this.mongoCollection.aggregate(
-            List.of(
-                Aggregates.match(Filters.in(source.queryName(), ids)),
-                Aggregates.group("$" + source.queryName(), Accumulators.addToSet("uid", "$uid"))
-            )
-        );
-
-        Map<S, C> map = new HashMap<>();
+        return SourceAggregations.mapBySourceIds(this.mongoCollection, source, ids, Function.identity(), builder, this.sourceChunkSize, this.sourceExecutor);
+    }
 
-        aggregationResult.forEach((Consumer<? super Document>) doc -> {
-            var sourceId = doc.get("_id", source.type());
-            var value = builder.build(doc);
+    public int getSourceChunkSize()
+    {
+        return this.sourceChunkSize;
+    }
 
-            map.put(sourceId, value);
-        });
+    /**
+     * Sets the maximum number of source ids per aggregation, larger id sets are split into several aggregations.
+     *
+     * @param sourceChunkSize
+     * @return
+     */
+    public MongoDBSourceableStore<T> setSourceChunkSize(int sourceChunkSize)
+    {
+        if (sourceChunkSize < 1)
+            throw new IllegalArgumentException("The source chunk size has to be strictly positive.");
+        this.sourceChunkSize = sourceChunkSize;
+        return this;
+    }
 
-        return map;
+    /**
+     * Sets the executor used for running the aggregations of a chunked lookup by source ids concurrently.
+     * The executor's lifecycle remains the caller's responsibility.
+     *
+     * @param sourceExecutor An executor, or null for running them sequentially on the calling thread.
+     * @return
+     */
+    public MongoDBSourceableStore<T> setSourceExecutor(Executor sourceExecutor)
+    {
+        this.sourceExecutor = sourceExecutor;
+        return this;
     }
 }
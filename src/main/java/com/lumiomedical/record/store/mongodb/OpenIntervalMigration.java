@@ -0,0 +1,49 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.logging.Logging;
+import com.lumiomedical.record.store.mongodb.factory.RecordFactory;
+import com.mongodb.DBCollection;
+
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
+
+/**
+ * An OpenIntervalMigration converts the validity_end of open versions to the representation the store is configured with,
+ * see RecordFactory.setOpenEndSentinel. It works in both directions.
+ *
+ * Like the CompactEncodingMigration, it is meant to be run offline: queries only match the representation in use.
+ */
+public final class OpenIntervalMigration<R extends Record<R>>
+{
+    private final MongoDBRecordStore<R> store;
+
+    /**
+     *
+     * @param store
+     */
+    public OpenIntervalMigration(MongoDBRecordStore<R> store)
+    {
+        this.store = store;
+    }
+
+    /**
+     *
+     * @return The number of versions that were updated.
+     */
+    public long run()
+    {
+        DBCollection collection = this.store.recordCollection();
+
+        Object from = this.store.hasOpenEndSentinel() ? null : RecordFactory.OPEN_END;
+        Object to = this.store.recordFactory().openEnd();
+
+        long updated = collection.updateMulti(
+            dbObject("validity_end", from),
+            dbObject("$set", dbObject("validity_end", to))
+        ).getN();
+
+        Logging.logger.info("Open interval migration of " + collection.getName() + " updated " + updated + " versions");
+
+        return updated;
+    }
+}
@@ -0,0 +1,159 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.logging.Logging;
+import com.lumiomedical.record.store.mongodb.hash.RecordHashStrategy;
+import com.mongodb.*;
+import com.noleme.store.factory.Transcriber;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbList;
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
+
+/**
+ * A RehashMigration converts the versions of a store's collection to a given hash strategy.
+ *
+ * Each version is rebuilt into a record and transcribed again, the same way a re-import would, and its hash is replaced in place.
+ * No version is ever created or closed by the migration, so once it is complete a re-import with the new strategy finds every unchanged record as such.
+ * Versions are only updated if their hash hasn't changed since they were read, and the migration can be run again any number of times:
+ * only versions that weren't produced by the target strategy are considered.
+ *
+ * The intended sequence is: run the migration, switch the store to the new strategy, then run the migration again for any version written in-between.
+ * Puts compare hashes as-is, so for the duration of that sequence the store has to accept both strategies (see MongoDBRecordStore.acceptHashStrategy), which migrate takes care of.
+ *
+ * Versions are transcribed with the store's Factory unless another Transcriber is provided: versions written through a custom Transcriber have to be migrated with that same Transcriber,
+ * otherwise they are given hashes that no later put through it will match. A collection written through several Transcribers needs a migration per Transcriber, restricted to the versions each one wrote.
+ */
+public final class RehashMigration<R extends Record<R>>
+{
+    private final MongoDBRecordStore<R> store;
+    private final RecordHashStrategy target;
+    private Transcriber<BasicDBObject, R> transcriber;
+    private DBObject filter;
+    private int batchSize;
+
+    /**
+     *
+     * @param store
+     * @param target
+     */
+    public RehashMigration(MongoDBRecordStore<R> store, RecordHashStrategy target)
+    {
+        this.store = store;
+        this.target = target;
+        this.transcriber = store.recordTranscriber();
+        this.filter = dbObject();
+        this.batchSize = 1000;
+    }
+
+    /**
+     *
+     * @param transcriber The Transcriber the versions were written with, the store's Factory by default.
+     * @return
+     */
+    public RehashMigration<R> setTranscriber(Transcriber<BasicDBObject, R> transcriber)
+    {
+        this.transcriber = transcriber;
+        return this;
+    }
+
+    /**
+     *
+     * @param filter A criteria restricting the versions to migrate, eg. to those written through the Transcriber set with setTranscriber.
+     * @return
+     */
+    public RehashMigration<R> setFilter(DBObject filter)
+    {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     *
+     * @param batchSize The number of updates sent to the database at once.
+     * @return
+     */
+    public RehashMigration<R> setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size has to be strictly positive.");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Runs the whole sequence on the calling thread: the store accepts the target strategy, versions are converted, the store switches to the target strategy and versions written in-between are converted.
+     * The previous strategy remains accepted by the store as puts started before the switch may still produce it, it can be revoked once a later run has nothing left to convert.
+     * Other processes writing to the collection should accept the target strategy before the migration starts.
+     *
+     * @return The number of versions that were updated.
+     */
+    public long migrate()
+    {
+        RecordHashStrategy previous = this.store.getHashStrategy();
+
+        this.store.acceptHashStrategy(this.target);
+        long updated = this.run();
+
+        this.store
+            .acceptHashStrategy(previous)
+            .setHashStrategy(this.target)
+            .revokeHashStrategy(this.target);
+
+        return updated + this.run();
+    }
+
+    /**
+     * Runs the migration on the calling thread.
+     *
+     * @return The number of versions that were updated.
+     */
+    public long run()
+    {
+        DBCollection collection = this.store.recordCollection();
+        DBObject query = dbObject("$and", dbList(this.filter, dbObject("hash_strategy", dbObject("$ne", this.target.name()))));
+
+        long updated = 0;
+        long pending = 0;
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+
+        try (DBCursor cursor = collection.find(query).batchSize(this.batchSize)) {
+            while (cursor.hasNext())
+            {
+                BasicDBObject document = (BasicDBObject) cursor.next();
+                R record = this.store.buildRecord(document);
+                String hash = this.target.hash(this.transcriber.transcript(record));
+
+                bulk.find(dbObject("_id", document.get("_id")).append("hash", document.get("hash")))
+                    .updateOne(dbObject("$set", dbObject("hash", this.store.recordFactory().encodeHash(hash)).append("hash_strategy", this.target.name())));
+
+                if (++pending == this.batchSize)
+                {
+                    updated += bulk.execute().getModifiedCount();
+                    bulk = collection.initializeUnorderedBulkOperation();
+                    pending = 0;
+                }
+            }
+        }
+
+        if (pending > 0)
+            updated += bulk.execute().getModifiedCount();
+
+        Logging.logger.info("Rehash migration of " + collection.getName() + " to " + this.target.name() + " updated " + updated + " versions");
+
+        return updated;
+    }
+
+    /**
+     * Runs the migration in the background.
+     *
+     * @param executor
+     * @return A future completed with the number of versions that were updated.
+     */
+    public CompletableFuture<Long> runAsync(Executor executor)
+    {
+        return CompletableFuture.supplyAsync(this::run, executor);
+    }
+}
@@ -0,0 +1,251 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.source.AbstractSource;
+import com.lumiomedical.record.source.Source;
+import com.lumiomedical.record.source.SourceCollection;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Filters;
+import com.noleme.store.factory.Builder;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+final class SourceAggregations
+{
+    private SourceAggregations() {}
+
+    /**
+     * Groups the documents matching the provided source ids by source id, with one aggregation per chunk of at most chunkSize ids.
+     * Chunks are aggregated concurrently when an executor is provided, sequentially otherwise; as chunks hold distinct ids their results are simply merged.
+     *
+     * @param collection
+     * @param source
+     * @param ids
+     * @param criteria A function completing the $in criteria over source ids (eg. with referential criteria)
+     * @param builder
+     * @param chunkSize
+     * @param executor An executor, or null
+     * @param <S>
+     * @param <C>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <S, C> Map<S, C> mapBySourceIds(
+        MongoCollection<Document> collection,
+        Source<S, ?> source,
+        Collection<S> ids,
+        Function<Bson, Bson> criteria,
+        Builder<Document, C> builder,
+        int chunkSize,
+        Executor executor
+    )
+    {
+        return (Map<S, C>) aggregateChunked(collection, source, ids, criteria, builder, chunkSize, executor);
+    }
+
+    /**
+     * Groups the documents matching the provided ids of several sources by source id.
+     * Documents matching any of the sources are selected once, then each source gets its own $facet pipeline; SourceCollection sources are unwound so that their documents are grouped by item rather than by whole collection.
+     * As the output of a $facet stage is a single document, which has to fit within the 16MB BSON document limit, id sets larger than chunkSize as a whole are rather looked up source by source, with chunked aggregations.
+     *
+     * @param collection
+     * @param ids Source ids, grouped by source
+     * @param criteria A function completing the criteria over source ids (eg. with referential criteria)
+     * @param builder
+     * @param chunkSize
+     * @param executor An executor, or null
+     * @param <A>
+     * @param <C>
+     * @return
+     */
+    static <A extends AbstractSource<?, ?>, C> Map<A, Map<Object, C>> mapBySources(
+        MongoCollection<Document> collection,
+        Map<A, ? extends Collection<?>> ids,
+        Function<Bson, Bson> criteria,
+        Builder<Document, C> builder,
+        int chunkSize,
+        Executor executor
+    )
+    {
+        Map<A, Map<Object, C>> maps = new HashMap<>();
+        Map<A, Set<?>> distinctIds = new HashMap<>();
+        int total = 0;
+
+        for (Map.Entry<A, ? extends Collection<?>> entry : ids.entrySet())
+        {
+            maps.put(entry.getKey(), new HashMap<>());
+
+            if (entry.getValue().isEmpty())
+                continue;
+
+            Set<?> distinct = new LinkedHashSet<>(entry.getValue());
+            distinctIds.put(entry.getKey(), distinct);
+            total += distinct.size();
+        }
+
+        if (distinctIds.isEmpty())
+            return maps;
+
+        if (total > chunkSize) {
+            for (Map.Entry<A, Set<?>> entry : distinctIds.entrySet())
+                maps.put(entry.getKey(), aggregateChunked(collection, entry.getKey(), entry.getValue(), criteria, builder, chunkSize, executor));
+            return maps;
+        }
+
+        List<A> sources = new ArrayList<>();
+        List<Bson> matches = new ArrayList<>();
+        List<Facet> facets = new ArrayList<>();
+
+        for (Map.Entry<A, Set<?>> entry : distinctIds.entrySet())
+        {
+            Bson match = Filters.in(entry.getKey().queryName(), entry.getValue());
+
+            /* Facet names are positional as source names aren't guaranteed to be valid field names */
+            facets.add(new Facet("s" + sources.size(), groupPipeline(entry.getKey(), match)));
+            sources.add(entry.getKey());
+            matches.add(match);
+        }
+
+        Document result = collection.aggregate(
+            List.of(
+                Aggregates.match(criteria.apply(matches.size() == 1 ? matches.get(0) : Filters.or(matches))),
+                Aggregates.facet(facets)
+            )
+        ).allowDiskUse(true).first();
+
+        if (result == null)
+            return maps;
+
+        for (int i = 0 ; i < sources.size() ; ++i)
+        {
+            A source = sources.get(i);
+            Class<?> type = keyType(source);
+            Map<Object, C> map = maps.get(source);
+
+            for (Document doc : result.getList("s" + i, Document.class))
+                map.put(doc.get("_id", type), builder.build(doc));
+        }
+
+        return maps;
+    }
+
+    /**
+     *
+     * @param collection
+     * @param source
+     * @param ids
+     * @param criteria
+     * @param builder
+     * @param chunkSize
+     * @param executor
+     * @param <C>
+     * @return
+     */
+    private static <C> Map<Object, C> aggregateChunked(
+        MongoCollection<Document> collection,
+        AbstractSource<?, ?> source,
+        Collection<?> ids,
+        Function<Bson, Bson> criteria,
+        Builder<Document, C> builder,
+        int chunkSize,
+        Executor executor
+    )
+    {
+        if (ids.isEmpty())
+            return new HashMap<>();
+
+        List<? extends List<?>> chunks = Chunks.partition(new LinkedHashSet<>(ids), chunkSize);
+        if (chunks.size() == 1 || executor == null) {
+            Map<Object, C> map = new HashMap<>();
+            for (List<?> chunk : chunks)
+                map.putAll(aggregate(collection, source, chunk, criteria, builder));
+            return map;
+        }
+
+        List<CompletableFuture<Map<Object, C>>> futures = new ArrayList<>(chunks.size());
+        for (List<?> chunk : chunks)
+            futures.add(CompletableFuture.supplyAsync(() -> aggregate(collection, source, chunk, criteria, builder), executor));
+
+        Map<Object, C> map = new HashMap<>();
+        try {
+            for (CompletableFuture<Map<Object, C>> future : futures)
+                map.putAll(future.join());
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return map;
+    }
+
+    /**
+     *
+     * @param collection
+     * @param source
+     * @param ids
+     * @param criteria
+     * @param builder
+     * @param <C>
+     * @return
+     */
+    private static <C> Map<Object, C> aggregate(MongoCollection<Document> collection, AbstractSource<?, ?> source, List<?> ids, Function<Bson, Bson> criteria, Builder<Document, C> builder)
+    {
+        Map<Object, C> map = new HashMap<>();
+        Class<?> type = keyType(source);
+        Bson match = Filters.in(source.queryName(), ids);
+
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(criteria.apply(match)));
+        List<Bson> group = groupPipeline(source, match);
+        pipeline.addAll(group.subList(1, group.size()));
+
+        collection.aggregate(pipeline).allowDiskUse(true).forEach((Consumer<? super Document>) doc -> {
+            var sourceId = doc.get("_id", type);
+            var value = builder.build(doc);
+
+            map.put(sourceId, value);
+        });
+
+        return map;
+    }
+
+    /**
+     * Builds the stages grouping the uids of the documents matching the provided criteria by source id.
+     *
+     * @param source
+     * @param match The criteria over the source ids
+     * @return
+     */
+    private static List<Bson> groupPipeline(AbstractSource<?, ?> source, Bson match)
+    {
+        List<Bson> pipeline = new ArrayList<>(4);
+        pipeline.add(Aggregates.match(match));
+        /* Once unwound, documents also carry the items that weren't requested, hence the second match */
+        if (source instanceof SourceCollection) {
+            pipeline.add(Aggregates.unwind("$" + source.queryName()));
+            pipeline.add(Aggregates.match(match));
+        }
+        pipeline.add(Aggregates.group("$" + source.queryName(), Accumulators.addToSet("uid", "$uid")));
+        return pipeline;
+    }
+
+    /**
+     *
+     * @param source
+     * @return The type of the ids documents are grouped by, the item type for SourceCollection sources.
+     */
+    private static Class<?> keyType(AbstractSource<?, ?> source)
+    {
+        return source instanceof SourceCollection ? ((SourceCollection<?, ?>) source).itemType() : source.type();
+    }
+}
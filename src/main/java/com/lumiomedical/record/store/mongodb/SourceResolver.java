@@ -0,0 +1,256 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.logging.Logging;
+import com.lumiomedical.record.source.Source;
+import com.lumiomedical.record.store.CommitListener;
+import com.lumiomedical.record.store.Referentialized;
+import com.lumiomedical.record.store.mongodb.factory.RecordFactory;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import net.openhft.hashing.LongHashFunction;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
+
+/**
+ * A SourceResolver holds the whole mapping from the ids of a Source to the uids of the current versions, for resolving them without querying the store.
+ *
+ * The mapping is loaded once with a scan that can be served by the (sources.name, uid, validity_start, validity_end) index createIndexes builds for the sources of the record type, it is then kept up to date with the puts committed through the store.
+ * The source criteria is a type-bracketed range rather than $exists, and without the open end sentinel validity_end is checked in memory rather than against null, as either would require fetching documents.
+ * Integral source ids are used as keys as-is, other ids are keyed by the 64-bit XXH3 hash of their string form and stored along with it:
+ * ids whose hashes collide are told apart, the few that can't get a slot of their own are held in a regular map instead.
+ *
+ * Past the load the mapping is append-only: ids that a put moves away from a uid, removals and writes from other processes are only accounted for by a new call to load.
+ * Puts starting in the future aren't mapped, and neither are they once they start; after a failed put the current versions of the affected uids are read back from the store, as the put may have been partially applied.
+ */
+public final class SourceResolver<S, R extends Record<R>> implements CommitListener<R>
+{
+    private static final LongHashFunction keyHasher = LongHashFunction.xx3();
+
+    private final MongoDBRecordStore<R> store;
+    private final Source<S, R> source;
+    private LongUidMap uids;
+    private Map<String, String> collisions;
+
+    /**
+     *
+     * @param store
+     * @param source A source with numeric or string ids
+     */
+    public SourceResolver(MongoDBRecordStore<R> store, Source<S, R> source)
+    {
+        if (!Number.class.isAssignableFrom(source.type()) && !CharSequence.class.isAssignableFrom(source.type()))
+            throw new IllegalArgumentException("Only numeric and string sources can be resolved, " + source.name() + " is of type " + source.type().getName() + ".");
+        this.store = store;
+        this.source = source;
+        this.uids = new LongUidMap(0);
+        this.collisions = new HashMap<>();
+    }
+
+    /**
+     * Registers the resolver with the store and (re)loads the whole mapping, puts committed while loading are applied as well.
+     *
+     * @return
+     */
+    public SourceResolver<S, R> load()
+    {
+        this.store.removeCommitListener(this);
+
+        Instant now = Instant.now();
+        BasicDBObject query = dbObject()
+            .append(this.source.queryName(), dbObject("$gte", CharSequence.class.isAssignableFrom(this.source.type()) ? "" : Double.NEGATIVE_INFINITY));
+
+        LongUidMap uids = new LongUidMap(0);
+        synchronized (this) {
+            this.uids = uids;
+            this.collisions = new HashMap<>();
+        }
+        this.store.addCommitListener(this);
+
+        /* A put committed during the scan is more recent than what the scan may return for the same id */
+        int loaded = this.scan(query, now, false);
+
+        Logging.logger.info("Source resolver for " + this.source.name() + " loaded " + loaded + " ids");
+
+        return this;
+    }
+
+    /**
+     * Unregisters the resolver from the store, it then stops being kept up to date.
+     */
+    public void close()
+    {
+        this.store.removeCommitListener(this);
+    }
+
+    /**
+     *
+     * @param id
+     * @return The uid of the current version with the provided source id, or null if there is none.
+     */
+    public synchronized String resolve(S id)
+    {
+        return this.get(id);
+    }
+
+    /**
+     *
+     * @param ids
+     * @return A map of uids by source id, ids without a current version are absent.
+     */
+    public synchronized Map<S, String> resolve(Collection<S> ids)
+    {
+        Map<S, String> uids = new HashMap<>();
+        for (S id : ids)
+        {
+            String uid = this.get(id);
+            if (uid != null)
+                uids.put(id, uid);
+        }
+        return uids;
+    }
+
+    public synchronized int size()
+    {
+        return this.uids.size() + this.collisions.size();
+    }
+
+    /**
+     * Only "at" puts that have already started can produce a current version, "between" puts and puts starting in the future are ignored.
+     *
+     * @param items
+     */
+    @Override
+    public synchronized void onCommit(Collection<Referentialized<R>> items)
+    {
+        Instant now = Instant.now();
+        for (Referentialized<R> item : items)
+        {
+            if (!item.referential.isAt() || item.referential.asAt().getAt().isAfter(now))
+                continue;
+            if (item.record.getUid() == null || !item.record.hasSource(this.source))
+                continue;
+
+            S id = item.record.getSourceId(this.source);
+            if (id != null)
+                this.put(id, item.record.getUid());
+        }
+    }
+
+    /**
+     * A failed put may or may not have been applied, the current versions of the affected uids are read back from the store.
+     *
+     * @param items
+     */
+    @Override
+    public void onFailure(Collection<Referentialized<R>> items)
+    {
+        Set<String> uids = new HashSet<>();
+        for (Referentialized<R> item : items)
+        {
+            if (item.record.getUid() != null)
+                uids.add(item.record.getUid());
+        }
+
+        if (uids.isEmpty())
+            return;
+
+        BasicDBObject query = dbObject()
+            .append("uid", dbObject("$in", this.store.recordFactory().encodeUids(uids)))
+            .append(this.source.queryName(), dbObject("$exists", true));
+
+        this.scan(query, Instant.now(), true);
+    }
+
+    /**
+     * Maps the source ids of the versions matching the provided query that are current at the provided instant.
+     *
+     * @param query
+     * @param now
+     * @param overwrite Whether ids that are already mapped are mapped again
+     * @return The number of ids that were mapped.
+     */
+    private int scan(BasicDBObject query, Instant now, boolean overwrite)
+    {
+        query.append("validity_start", dbObject("$lte", now));
+        if (this.store.hasOpenEndSentinel())
+            query.append("validity_end", dbObject("$gt", now));
+
+        BasicDBObject projection = dbObject()
+            .append(this.source.queryName(), 1)
+            .append("uid", 1)
+            .append("validity_end", 1)
+            .append("_id", 0);
+
+        int count = 0;
+        try (DBCursor cursor = this.store.recordCollection().find(query, projection).batchSize(10_000)) {
+            for (DBObject document : cursor)
+            {
+                Instant end = RecordFactory.decodeValidityEnd((BasicDBObject) document);
+                if (end != null && !end.isAfter(now))
+                    continue;
+
+                Object id = ((BasicDBObject) document.get("sources")).get(this.source.name());
+                String uid = RecordFactory.decodeUid(document.get("uid"));
+                synchronized (this) {
+                    if (overwrite || this.get(id) == null) {
+                        this.put(id, uid);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    private String get(Object id)
+    {
+        if (isIntegral(id))
+            return this.uids.get(((Number) id).longValue());
+
+        String key = id.toString();
+        String uid = this.uids.get(keyHasher.hashChars(key), key);
+        return uid != null ? uid : this.collisions.get(key);
+    }
+
+    /**
+     *
+     * @param id
+     * @param uid
+     */
+    private void put(Object id, String uid)
+    {
+        if (isIntegral(id)) {
+            this.uids.put(((Number) id).longValue(), uid);
+            return;
+        }
+
+        String key = id.toString();
+        if (!this.uids.put(keyHasher.hashChars(key), key, uid))
+            this.collisions.put(key, uid);
+    }
+
+    /**
+     * Other numbers (eg. Double or BigDecimal) would be truncated by longValue(), they are keyed by their string form instead.
+     *
+     * @param id
+     * @return
+     */
+    private static boolean isIntegral(Object id)
+    {
+        return id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte;
+    }
+}
@@ -0,0 +1,86 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.source.AbstractSource;
+import com.lumiomedical.record.source.SourceSet;
+import com.lumiomedical.record.source.register.SourceRegister;
+import com.lumiomedical.record.store.index.TemporalIndex;
+import com.mongodb.BasicDBObject;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
+
+/**
+ * A utility class deriving which document paths deserve a compound temporal index for a given record type.
+ */
+final class TemporalIndexes
+{
+    private TemporalIndexes() {}
+
+    /**
+     * Produces the keys of the index backing lookups and scans over a source: holding the uid makes the SourceResolver scan and the uid grouping of source lookups index-only.
+     *
+     * @param path The query name of the source
+     * @return
+     */
+    static BasicDBObject sourceIndex(String path)
+    {
+        return dbObject()
+            .append(path, 1)
+            .append("uid", 1)
+            .append("validity_start", 1)
+            .append("validity_end", 1);
+    }
+
+    /**
+     * Lists the paths of every source registered for the record type.
+     *
+     * @param recordType
+     * @return
+     */
+    static Set<String> sourcePaths(Class<?> recordType)
+    {
+        Set<String> paths = new LinkedHashSet<>();
+
+        if (recordType == null)
+            return paths;
+
+        SourceSet<?> set = SourceRegister.forType(recordType);
+        if (set != null) {
+            for (AbstractSource<?, ?> source : SourceRegister.listForSourceSet(set.getClass()))
+                paths.add(source.queryName());
+        }
+
+        return paths;
+    }
+
+    /**
+     * Lists the paths of the @TemporalIndex fields of the record type.
+     *
+     * @param recordType
+     * @return
+     * @throws IllegalArgumentException If an annotation has an empty path.
+     */
+    static Set<String> fieldPaths(Class<?> recordType)
+    {
+        Set<String> paths = new LinkedHashSet<>();
+
+        for (Class<?> type = recordType ; type != null && type != Object.class ; type = type.getSuperclass())
+        {
+            for (Field field : type.getDeclaredFields())
+            {
+                TemporalIndex annotation = field.getAnnotation(TemporalIndex.class);
+                if (annotation == null)
+                    continue;
+
+                if (annotation.value().isEmpty())
+                    throw new IllegalArgumentException("The @TemporalIndex of " + type.getName() + "." + field.getName() + " has to specify the path of the field within stored documents.");
+                paths.add(annotation.value());
+            }
+        }
+
+        return paths;
+    }
+}
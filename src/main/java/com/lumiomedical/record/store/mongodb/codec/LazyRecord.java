@@ -0,0 +1,89 @@
+package com.lumiomedical.record.store.mongodb.codec;
+
+import com.lumiomedical.record.Record;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * A LazyRecord holds a stored version as its raw BSON bytes: its metadata is decoded upfront, the record itself only on the first call to get.
+ * Once decoded, the raw bytes are released.
+ */
+public final class LazyRecord<R extends Record<R>>
+{
+    private final RecordMetadata metadata;
+    private final Function<RawBsonDocument, R> decoder;
+    private RawBsonDocument raw;
+    private R record;
+
+    /**
+     *
+     * @param raw
+     * @param decoder A function decoding the whole version, metadata included
+     */
+    public LazyRecord(RawBsonDocument raw, Function<RawBsonDocument, R> decoder)
+    {
+        this.raw = raw;
+        this.decoder = decoder;
+        this.metadata = new RecordMetadata();
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(raw.getByteBuffer().asNIO())) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+            {
+                if (!this.metadata.read(reader.readName(), reader))
+                    reader.skipValue();
+            }
+        }
+    }
+
+    public String getId()
+    {
+        return this.metadata.getId();
+    }
+
+    public String getUid()
+    {
+        return this.metadata.getUid();
+    }
+
+    /**
+     * @return The hash as stored, which can be compared against the hash of another version without decoding this one.
+     */
+    public String getHash()
+    {
+        return this.metadata.getHash();
+    }
+
+    public Instant getValidityStart()
+    {
+        return this.metadata.getValidityStart();
+    }
+
+    public Instant getValidityEnd()
+    {
+        return this.metadata.getValidityEnd();
+    }
+
+    public synchronized boolean isDecoded()
+    {
+        return this.record != null;
+    }
+
+    /**
+     * Decodes the record on the first call, subsequent calls return the same instance.
+     *
+     * @return
+     */
+    public synchronized R get()
+    {
+        if (this.record == null) {
+            this.record = this.decoder.apply(this.raw);
+            this.raw = null;
+        }
+        return this.record;
+    }
+}
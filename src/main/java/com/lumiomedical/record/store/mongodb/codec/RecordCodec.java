@@ -0,0 +1,34 @@
+package com.lumiomedical.record.store.mongodb.codec;
+
+import com.lumiomedical.record.Record;
+import org.bson.BsonReader;
+import org.bson.codecs.DecoderContext;
+
+/**
+ * A RecordCodec decodes the fields of a stored version straight from BSON, without going through an intermediate BasicDBObject.
+ * The record metadata (_id, uid, hash and validity fields) is handled by the store, a RecordCodec only deals with the fields of its own record type.
+ */
+public interface RecordCodec<R extends Record<R>>
+{
+    /**
+     *
+     * @return
+     */
+    Class<R> getRecordClass();
+
+    /**
+     * @return A new empty record, fields are then decoded into it.
+     */
+    R newRecord();
+
+    /**
+     * Reads the value of a field into the provided record, the reader being positioned on the value.
+     * Unknown fields have to be skipped with BsonReader.skipValue().
+     *
+     * @param name
+     * @param reader
+     * @param context
+     * @param record
+     */
+    void decodeField(String name, BsonReader reader, DecoderContext context, R record);
+}
@@ -0,0 +1,69 @@
+package com.lumiomedical.record.store.mongodb.codec;
+
+import com.lumiomedical.record.Record;
+import com.mongodb.BasicDBObject;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
+
+import java.util.function.Function;
+
+/**
+ * A driver Codec decoding stored versions with a RecordCodec, the record metadata being decoded beforehand by a RecordMetadata.
+ * Encoding goes through the store's Transcriber, records being written in the same stored form as the store's own writes.
+ */
+public final class RecordDocumentCodec<R extends Record<R>> implements Codec<R>
+{
+    private final RecordCodec<R> codec;
+    private final Function<R, BasicDBObject> transcriber;
+    private final Encoder<BasicDBObject> documentEncoder;
+
+    /**
+     *
+     * @param codec
+     * @param transcriber A function producing the stored form of a record.
+     * @param documentEncoder
+     */
+    public RecordDocumentCodec(RecordCodec<R> codec, Function<R, BasicDBObject> transcriber, Encoder<BasicDBObject> documentEncoder)
+    {
+        this.codec = codec;
+        this.transcriber = transcriber;
+        this.documentEncoder = documentEncoder;
+    }
+
+    @Override
+    public R decode(BsonReader reader, DecoderContext context)
+    {
+        R record = this.codec.newRecord();
+        RecordMetadata metadata = new RecordMetadata();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+        {
+            String name = reader.readName();
+            if (!metadata.read(name, reader))
+                this.codec.decodeField(name, reader, context, record);
+        }
+        reader.readEndDocument();
+
+        metadata.apply(record);
+
+        return record;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, R value, EncoderContext context)
+    {
+        this.documentEncoder.encode(writer, this.transcriber.apply(value), context);
+    }
+
+    @Override
+    public Class<R> getEncoderClass()
+    {
+        return this.codec.getRecordClass();
+    }
+}
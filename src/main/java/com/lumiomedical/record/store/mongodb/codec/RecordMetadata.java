@@ -0,0 +1,139 @@
+package com.lumiomedical.record.store.mongodb.codec;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.store.mongodb.factory.RecordFactory;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+
+import java.time.Instant;
+
+/**
+ * The metadata fields of a stored version, decoded the same way RecordFactory.enrichBuild does.
+ */
+final class RecordMetadata
+{
+    private String id;
+    private String uid;
+    private String hash;
+    private Instant validityStart;
+    private Instant validityEnd;
+    private Instant officialValidityStart;
+    private Instant officialValidityEnd;
+
+    /**
+     * Reads the value of the provided field if it is a metadata field, the reader being positioned on the value.
+     *
+     * @param name
+     * @param reader
+     * @return true if the field was a metadata field and its value was read, false if the value is still to be read.
+     */
+    boolean read(String name, BsonReader reader)
+    {
+        switch (name)
+        {
+            case "_id":
+                this.id = reader.readObjectId().toHexString();
+                return true;
+            case "uid":
+                this.uid = RecordFactory.decodeUid(readIdentifier(reader));
+                return true;
+            case "hash":
+                this.hash = RecordFactory.decodeHash(readIdentifier(reader));
+                return true;
+            case "validity_start":
+                this.validityStart = readInstant(reader);
+                return true;
+            case "validity_end":
+                Instant end = readInstant(reader);
+                this.validityEnd = RecordFactory.OPEN_END.equals(end) ? null : end;
+                return true;
+            case "official_validity_start":
+                this.officialValidityStart = readInstant(reader);
+                return true;
+            case "official_validity_end":
+                this.officialValidityEnd = readInstant(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     *
+     * @param record
+     */
+    void apply(Record<?> record)
+    {
+        record
+            .setId(this.id)
+            .setUid(this.uid)
+            .setHash(this.hash)
+            .setValidityStart(this.validityStart)
+            .setValidityEnd(this.validityEnd)
+            .setOfficialValidityStart(this.officialValidityStart)
+            .setOfficialValidityEnd(this.officialValidityEnd);
+    }
+
+    String getId()
+    {
+        return this.id;
+    }
+
+    String getUid()
+    {
+        return this.uid;
+    }
+
+    String getHash()
+    {
+        return this.hash;
+    }
+
+    Instant getValidityStart()
+    {
+        return this.validityStart;
+    }
+
+    Instant getValidityEnd()
+    {
+        return this.validityEnd;
+    }
+
+    /**
+     * Reads a uid or a hash in any of its stored forms, see RecordFactory.encodeUid and RecordFactory.encodeHash.
+     *
+     * @param reader
+     * @return
+     */
+    private static Object readIdentifier(BsonReader reader)
+    {
+        switch (reader.getCurrentBsonType())
+        {
+            case STRING:
+                return reader.readString();
+            case INT64:
+                return reader.readInt64();
+            case BINARY:
+                return reader.readBinaryData().getData();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                throw new IllegalStateException("Unexpected BSON type " + reader.getCurrentBsonType() + " for a record identifier.");
+        }
+    }
+
+    /**
+     *
+     * @param reader
+     * @return
+     */
+    private static Instant readInstant(BsonReader reader)
+    {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return Instant.ofEpochMilli(reader.readDateTime());
+    }
+}
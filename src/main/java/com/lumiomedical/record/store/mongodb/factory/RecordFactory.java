@@ -3,6 +3,16 @@ package com.lumiomedical.record.store.mongodb.factory;
 import com.lumiomedical.record.Record;
 import com.lumiomedical.record.store.mongodb.DBObjects;
 import com.mongodb.BasicDBObject;
+import org.bson.BsonBinarySubType;
+import org.bson.types.Binary;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
 
 /**
  * @author Pierre Lecerf (plecerf@lumiomedical.com)
@@ -10,6 +20,17 @@ import com.mongodb.BasicDBObject;
  */
 public class RecordFactory<R extends Record>
 {
+    /**
+     * The validity_end stored for open versions when the open end sentinel is enabled.
+     */
+    public static final Instant OPEN_END = Instant.parse("9999-12-31T23:59:59.999Z");
+
+    private static final Pattern uuidPattern = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+    private boolean compactEncoding = false;
+    private boolean openEndSentinel = false;
+
     /**
      *
      * @param input
@@ -20,10 +41,10 @@ public class RecordFactory<R extends Record>
     {
         output
             .setId(input.getObjectId("_id").toHexString())
-            .setUid(input.getString("uid"))
-            .setHash(input.getString("hash"))
+            .setUid(decodeUid(input.get("uid")))
+            .setHash(decodeHash(input.get("hash")))
             .setValidityStart(DBObjects.getInstantOrNull(input, "validity_start"))
-            .setValidityEnd(DBObjects.getInstantOrNull(input, "validity_end"))
+            .setValidityEnd(decodeValidityEnd(input))
             .setOfficialValidityStart(DBObjects.getInstantOrNull(input, "official_validity_start"))
             .setOfficialValidityEnd(DBObjects.getInstantOrNull(input, "official_validity_end"));
 
@@ -40,9 +61,166 @@ public class RecordFactory<R extends Record>
     {
         /* validity_start and validity_end are added at the query stage */
         return output
-            .append("uid", input.getUid())
-            .append("hash", input.getHash())
+            .append("uid", this.encodeUid(input.getUid()))
+            .append("hash", this.encodeHash(input.getHash()))
             .append("official_validity_start", input.getOfficialValidityStart())
             .append("official_validity_end", input.getOfficialValidityEnd());
     }
+
+    /**
+     * Produces the stored form of a uid: with compact encoding enabled, UUID-shaped uids are stored as 16-byte UUID binaries, other uids are left as-is.
+     *
+     * @param uid
+     * @return
+     */
+    public Object encodeUid(String uid)
+    {
+        if (!this.compactEncoding || uid == null || !uuidPattern.matcher(uid).matches())
+            return uid;
+
+        UUID uuid = UUID.fromString(uid);
+        return new Binary(
+            BsonBinarySubType.UUID_STANDARD,
+            ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array()
+        );
+    }
+
+    /**
+     *
+     * @param uids
+     * @return
+     */
+    public List<Object> encodeUids(Collection<String> uids)
+    {
+        List<Object> encoded = new ArrayList<>(uids.size());
+        for (String uid : uids)
+            encoded.add(this.encodeUid(uid));
+        return encoded;
+    }
+
+    /**
+     * Produces the stored form of a hash: with compact encoding enabled, 64-bit hashes are stored as int64 and wider ones as binaries.
+     *
+     * @param hash
+     * @return
+     */
+    public Object encodeHash(String hash)
+    {
+        if (!this.compactEncoding || hash == null)
+            return hash;
+        if (hash.length() <= 16)
+            return Long.parseUnsignedLong(hash, 16);
+
+        byte[] bytes = new byte[(hash.length() + 1) / 2];
+        for (int i = hash.length() - 1, b = bytes.length - 1 ; i >= 0 ; i -= 2, --b)
+        {
+            int low = Character.digit(hash.charAt(i), 16);
+            int high = i > 0 ? Character.digit(hash.charAt(i - 1), 16) : 0;
+            bytes[b] = (byte) ((high << 4) | low);
+        }
+        return new Binary(bytes);
+    }
+
+    /**
+     * @return The validity_end to store for open versions.
+     */
+    public Instant openEnd()
+    {
+        return this.openEndSentinel ? OPEN_END : null;
+    }
+
+    /**
+     * Reads the validity_end of a stored version, open versions are given a null validity_end regardless of how they are stored.
+     *
+     * @param input
+     * @return
+     */
+    public static Instant decodeValidityEnd(BasicDBObject input)
+    {
+        Instant end = DBObjects.getInstantOrNull(input, "validity_end");
+        return OPEN_END.equals(end) ? null : end;
+    }
+
+    /**
+     * Reads a uid from its stored form, regardless of whether it was written with compact encoding or not.
+     *
+     * @param value
+     * @return
+     */
+    public static String decodeUid(Object value)
+    {
+        if (value == null || value instanceof String)
+            return (String) value;
+        if (value instanceof UUID)
+            return value.toString();
+
+        byte[] bytes = value instanceof Binary ? ((Binary) value).getData() : (byte[]) value;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+
+    /**
+     * Reads a hash from its stored form, regardless of whether it was written with compact encoding or not.
+     *
+     * @param value
+     * @return
+     */
+    public static String decodeHash(Object value)
+    {
+        if (value == null || value instanceof String)
+            return (String) value;
+        if (value instanceof Long)
+            return Long.toHexString((Long) value);
+
+        byte[] bytes = value instanceof Binary ? ((Binary) value).getData() : (byte[]) value;
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0 ; i < bytes.length ; ++i)
+        {
+            chars[i * 2] = hexDigits[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = hexDigits[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    public boolean hasCompactEncoding()
+    {
+        return this.compactEncoding;
+    }
+
+    /**
+     * Compact encoding stores hashes as int64 (or binaries for wider hashes) and UUID-shaped uids as UUID binaries, instead of hexadecimal strings.
+     * Records are read transparently regardless of their encoding, but queries only match the encoding currently in use: existing collections have to be
+     * converted with a CompactEncodingMigration when enabling it.
+     *
+     * @param compactEncoding
+     * @return
+     */
+    public RecordFactory<R> setCompactEncoding(boolean compactEncoding)
+    {
+        this.compactEncoding = compactEncoding;
+        return this;
+    }
+
+    public boolean hasOpenEndSentinel()
+    {
+        return this.openEndSentinel;
+    }
+
+    /**
+     * With the open end sentinel enabled, open versions are stored with OPEN_END as their validity_end instead of null.
+     * "Valid at t" then amounts to a single range over (validity_start, validity_end) instead of a union with a null match.
+     * Records are read transparently either way, but queries only match the representation currently in use: existing collections have to be
+     * converted with an OpenIntervalMigration when enabling it.
+     *
+     * @param openEndSentinel
+     * @return
+     */
+    public RecordFactory<R> setOpenEndSentinel(boolean openEndSentinel)
+    {
+        this.openEndSentinel = openEndSentinel;
+        return this;
+    }
 }
@@ -0,0 +1,428 @@
+package com.lumiomedical.record.store.mongodb.hash;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClientSettings;
+import org.bson.BSONObject;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.OutputBuffer;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * The CanonicalBsonWriter produces the BSON encoding of a document with its keys sorted alphabetically at every level.
+ *
+ * It walks the document directly and writes into a buffer that is reused by each thread, instead of building a sorted copy of the document
+ * and encoding it through the driver's codecs. The produced bytes are identical to what the driver produces for the sorted copy,
+ * which is what hashes have historically been computed on: for any value type that isn't explicitly handled here, we fall back to the
+ * historical copy-and-encode implementation.
+ */
+final class CanonicalBsonWriter
+{
+    private static final int INITIAL_SIZE = 1024;
+    /* Past this size, the buffer is dropped instead of being kept around by the thread */
+    private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+    private static final ThreadLocal<CanonicalBsonWriter> writers = ThreadLocal.withInitial(CanonicalBsonWriter::new);
+
+    private byte[] buffer;
+    private int position;
+
+    private CanonicalBsonWriter()
+    {
+        this.buffer = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Writes the canonical encoding of the provided document into the current thread's writer.
+     * The returned writer's buffer is only valid until the next call to write on the same thread.
+     *
+     * @param document
+     * @return
+     */
+    static CanonicalBsonWriter write(BSONObject document)
+    {
+        CanonicalBsonWriter writer = writers.get();
+        writer.reset();
+
+        try {
+            writer.writeBsonObject(document);
+        }
+        catch (UnsupportedValueException e) {
+            writer.reset();
+            writer.writeBytes(encodeLegacy(document));
+        }
+
+        return writer;
+    }
+
+    byte[] buffer()
+    {
+        return this.buffer;
+    }
+
+    int length()
+    {
+        return this.position;
+    }
+
+    private void reset()
+    {
+        if (this.buffer.length > MAX_RETAINED_SIZE)
+            this.buffer = new byte[INITIAL_SIZE];
+        this.position = 0;
+    }
+
+    /**
+     *
+     * @param value
+     * @param canonical Whether the value sits in a canonicalized part of the document
+     */
+    @SuppressWarnings("unchecked")
+    private void writeValue(String name, Object value, boolean canonical)
+    {
+        /*
+         * This mirrors the dispatch order of DBObjectCodec.writeValue, applied to what canonicalization would have produced:
+         * BSONObjects (other than lists) become sorted documents, lists become canonicalized lists, maps become sorted maps.
+         * Any other value, including non-list iterables, was left as-is by canonicalization (and so were its contents).
+         */
+        if (value == null)
+            this.writeElementHeader(0x0A, name);
+        else if (canonical && value instanceof BSONObject && !(value instanceof BasicBSONList)) {
+            this.writeElementHeader(0x03, name);
+            this.writeBsonObject((BSONObject) value);
+        }
+        else if (value instanceof Map) {
+            this.writeElementHeader(0x03, name);
+            this.writeMap((Map<Object, Object>) value, canonical);
+        }
+        else if (value instanceof Iterable) {
+            this.writeElementHeader(0x04, name);
+            this.writeIterable((Iterable<Object>) value, canonical && value instanceof List);
+        }
+        else if (value instanceof String) {
+            this.writeElementHeader(0x02, name);
+            this.writeString((String) value);
+        }
+        else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            this.writeElementHeader(0x10, name);
+            this.writeInt32(((Number) value).intValue());
+        }
+        else if (value instanceof Long) {
+            this.writeElementHeader(0x12, name);
+            this.writeInt64((Long) value);
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            this.writeElementHeader(0x01, name);
+            this.writeInt64(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+        }
+        else if (value instanceof Boolean) {
+            this.writeElementHeader(0x08, name);
+            this.writeByte((Boolean) value ? 1 : 0);
+        }
+        /* Date subclasses (eg. java.sql.Timestamp) have no codec of their own, they go through the fallback */
+        else if (value.getClass() == Date.class) {
+            this.writeElementHeader(0x09, name);
+            this.writeInt64(((Date) value).getTime());
+        }
+        else if (value instanceof Instant) {
+            this.writeElementHeader(0x09, name);
+            this.writeInt64(((Instant) value).toEpochMilli());
+        }
+        else if (value instanceof ObjectId) {
+            this.writeElementHeader(0x07, name);
+            this.writeBytes(((ObjectId) value).toByteArray());
+        }
+        else if (value instanceof Character) {
+            this.writeElementHeader(0x02, name);
+            this.writeString(value.toString());
+        }
+        else
+            throw UnsupportedValueException.instance;
+    }
+
+    /**
+     * Writes a document with its keys sorted, as canonicalization would have done.
+     *
+     * @param document
+     */
+    private void writeBsonObject(BSONObject document)
+    {
+        if (document instanceof Map) {
+            //noinspection unchecked
+            this.writeMap((Map<Object, Object>) document, true);
+            return;
+        }
+
+        int start = this.startDocument();
+        String[] keys = document.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        for (String key : keys)
+            this.writeValue(key, document.get(key), true);
+        this.endDocument(start);
+    }
+
+    /**
+     *
+     * @param map
+     * @param canonical
+     */
+    private void writeMap(Map<Object, Object> map, boolean canonical)
+    {
+        int start = this.startDocument();
+
+        if (canonical) {
+            String[] keys = new String[map.size()];
+            int i = 0;
+            for (Object key : map.keySet())
+            {
+                if (!(key instanceof String))
+                    throw UnsupportedValueException.instance;
+                keys[i++] = (String) key;
+            }
+            Arrays.sort(keys);
+            for (String key : keys)
+                this.writeValue(key, map.get(key), true);
+        }
+        else {
+            for (Map.Entry<Object, Object> entry : map.entrySet())
+            {
+                if (!(entry.getKey() instanceof String))
+                    throw UnsupportedValueException.instance;
+                this.writeValue((String) entry.getKey(), entry.getValue(), false);
+            }
+        }
+
+        this.endDocument(start);
+    }
+
+    /**
+     *
+     * @param iterable
+     * @param canonical
+     */
+    private void writeIterable(Iterable<Object> iterable, boolean canonical)
+    {
+        int start = this.startDocument();
+        int index = 0;
+        for (Object value : iterable)
+            this.writeValue(Integer.toString(index++), value, canonical);
+        this.endDocument(start);
+    }
+
+    private int startDocument()
+    {
+        int start = this.position;
+        this.writeInt32(0);
+        return start;
+    }
+
+    private void endDocument(int start)
+    {
+        this.writeByte(0);
+        this.patchInt32(start, this.position - start);
+    }
+
+    private void writeElementHeader(int type, String name)
+    {
+        this.writeByte(type);
+        this.writeCString(name);
+    }
+
+    private void writeCString(String value)
+    {
+        /* The driver refuses null characters in names, we leave it to the fallback implementation to throw accordingly */
+        if (value.indexOf('\0') >= 0)
+            throw UnsupportedValueException.instance;
+        this.writeCharacters(value);
+    }
+
+    private void writeString(String value)
+    {
+        int start = this.position;
+        this.writeInt32(0);
+        this.writeCharacters(value);
+        this.patchInt32(start, this.position - start - 4);
+    }
+
+    /**
+     * Encodes characters the same way as OutputBuffer.writeCharacters, including the trailing null byte.
+     *
+     * @param value
+     */
+    private void writeCharacters(String value)
+    {
+        int length = value.length();
+        this.ensureCapacity(length * 3 + 1);
+
+        for (int i = 0 ; i < length ;)
+        {
+            int c = Character.codePointAt(value, i);
+
+            if (c < 0x80)
+                this.buffer[this.position++] = (byte) c;
+            else if (c < 0x800) {
+                this.buffer[this.position++] = (byte) (0xc0 + (c >> 6));
+                this.buffer[this.position++] = (byte) (0x80 + (c & 0x3f));
+            }
+            else if (c < 0x10000) {
+                this.buffer[this.position++] = (byte) (0xe0 + (c >> 12));
+                this.buffer[this.position++] = (byte) (0x80 + ((c >> 6) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 + (c & 0x3f));
+            }
+            else {
+                this.buffer[this.position++] = (byte) (0xf0 + (c >> 18));
+                this.buffer[this.position++] = (byte) (0x80 + ((c >> 12) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 + ((c >> 6) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 + (c & 0x3f));
+            }
+
+            i += Character.charCount(c);
+        }
+
+        this.buffer[this.position++] = 0;
+    }
+
+    private void writeByte(int value)
+    {
+        this.ensureCapacity(1);
+        this.buffer[this.position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes)
+    {
+        this.ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void writeInt32(int value)
+    {
+        this.ensureCapacity(4);
+        this.patchInt32(this.position, value);
+        this.position += 4;
+    }
+
+    private void writeInt64(long value)
+    {
+        this.ensureCapacity(8);
+        for (int i = 0 ; i < 8 ; ++i)
+            this.buffer[this.position++] = (byte) (value >>> (8 * i));
+    }
+
+    private void patchInt32(int at, int value)
+    {
+        this.buffer[at] = (byte) value;
+        this.buffer[at + 1] = (byte) (value >>> 8);
+        this.buffer[at + 2] = (byte) (value >>> 16);
+        this.buffer[at + 3] = (byte) (value >>> 24);
+    }
+
+    private void ensureCapacity(int size)
+    {
+        if (this.position + size <= this.buffer.length)
+            return;
+        this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + size));
+    }
+
+    /**
+     * The historical implementation: a sorted copy of the document is built, then encoded with the driver's DBObject codec.
+     *
+     * @param document
+     * @return
+     */
+    static byte[] encodeLegacy(BSONObject document)
+    {
+        OutputBuffer outputBuffer = new BasicOutputBuffer();
+        MongoClientSettings.getDefaultCodecRegistry()
+            .get(DBObject.class)
+            .encode(
+                new BsonBinaryWriter(outputBuffer),
+                canonicalizeBSONObject(document),
+                EncoderContext.builder().build()
+            );
+        return outputBuffer.toByteArray();
+    }
+
+    /**
+     * create a copy of "from", but with keys ordered alphabetically
+     *
+     * @param from
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static Object canonicalize(final Object from)
+    {
+        if (from instanceof BSONObject && !(from instanceof BasicBSONList))
+            return canonicalizeBSONObject((BSONObject) from);
+        /* BasicBSONList extends ArrayList, so it falls in this category */
+        else if (from instanceof List)
+            return canonicalizeList((List<Object>) from);
+        else if (from instanceof Map)
+            return canonicalizeMap((Map<String, Object>) from);
+        return from;
+    }
+
+    /**
+     *
+     * @param from
+     * @return
+     */
+    private static Map<String, Object> canonicalizeMap(final Map<String, Object> from)
+    {
+        Map<String, Object> canonicalized = new LinkedHashMap<>(from.size());
+        TreeSet<String> keysInOrder = new TreeSet<>(from.keySet());
+        for (String key : keysInOrder) {
+            Object val = from.get(key);
+            canonicalized.put(key, canonicalize(val));
+        }
+        return canonicalized;
+    }
+
+    /**
+     *
+     * @param from
+     * @return
+     */
+    private static DBObject canonicalizeBSONObject(final BSONObject from)
+    {
+        BasicDBObject canonicalized = new BasicDBObject();
+        TreeSet<String> keysInOrder = new TreeSet<>(from.keySet());
+        for (String key : keysInOrder) {
+            Object val = from.get(key);
+            canonicalized.put(key, canonicalize(val));
+        }
+        return canonicalized;
+    }
+
+    /**
+     *
+     * @param list
+     * @return
+     */
+    private static List canonicalizeList(final List<Object> list)
+    {
+        List<Object> canonicalized = new ArrayList<>(list.size());
+        for (Object cur : list) {
+            canonicalized.add(canonicalize(cur));
+        }
+        return canonicalized;
+    }
+
+    /**
+     * Signals a value the writer doesn't know how to encode, it is thrown as a singleton without stack trace since it is only used for control flow.
+     */
+    private static final class UnsupportedValueException extends RuntimeException
+    {
+        static final UnsupportedValueException instance = new UnsupportedValueException();
+
+        private UnsupportedValueException()
+        {
+            super("Unsupported value type for canonical BSON encoding", null, false, false);
+        }
+    }
+}
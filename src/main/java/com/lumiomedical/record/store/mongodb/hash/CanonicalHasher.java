@@ -0,0 +1,42 @@
+package com.lumiomedical.record.store.mongodb.hash;
+
+import net.openhft.hashing.LongHashFunction;
+import org.bson.BSONObject;
+
+/**
+ * The CanonicalHasher computes a 64-bit document hash that doesn't depend on the order of its keys.
+ */
+public final class CanonicalHasher implements RecordHashStrategy
+{
+    private final String name;
+    private final LongHashFunction function;
+
+    /**
+     *
+     * @param name
+     * @param function
+     */
+    public CanonicalHasher(String name, LongHashFunction function)
+    {
+        this.name = name;
+        this.function = function;
+    }
+
+    @Override
+    public String name()
+    {
+        return this.name;
+    }
+
+    /**
+     *
+     * @param document
+     * @return The hash value in hexadecimal form.
+     */
+    @Override
+    public String hash(BSONObject document)
+    {
+        CanonicalBsonWriter writer = CanonicalBsonWriter.write(document);
+        return Long.toHexString(this.function.hashBytes(writer.buffer(), 0, writer.length()));
+    }
+}
@@ -0,0 +1,55 @@
+package com.lumiomedical.record.store.mongodb.hash;
+
+import net.openhft.hashing.LongTupleHashFunction;
+import org.bson.BSONObject;
+
+/**
+ * The CanonicalTupleHasher computes a 128-bit document hash that doesn't depend on the order of its keys.
+ */
+public final class CanonicalTupleHasher implements RecordHashStrategy
+{
+    private final String name;
+    private final LongTupleHashFunction function;
+    private final ThreadLocal<long[]> results;
+
+    /**
+     *
+     * @param name
+     * @param function
+     */
+    public CanonicalTupleHasher(String name, LongTupleHashFunction function)
+    {
+        this.name = name;
+        this.function = function;
+        this.results = ThreadLocal.withInitial(function::newResultArray);
+    }
+
+    @Override
+    public String name()
+    {
+        return this.name;
+    }
+
+    /**
+     *
+     * @param document
+     * @return The hash value in hexadecimal form, zero-padded to a fixed length.
+     */
+    @Override
+    public String hash(BSONObject document)
+    {
+        CanonicalBsonWriter writer = CanonicalBsonWriter.write(document);
+        long[] result = this.results.get();
+        this.function.hashBytes(writer.buffer(), 0, writer.length(), result);
+
+        StringBuilder sb = new StringBuilder(result.length * 16);
+        for (long part : result)
+        {
+            String hex = Long.toHexString(part);
+            for (int i = hex.length() ; i < 16 ; ++i)
+                sb.append('0');
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.lumiomedical.record.store.mongodb.hash;
+
+import net.openhft.hashing.LongHashFunction;
+import net.openhft.hashing.LongTupleHashFunction;
+import org.bson.BSONObject;
+
+/**
+ * A RecordHashStrategy is responsible for computing the hash signature of record transcripts.
+ * Each stored version records the name of the strategy that produced its hash, see RehashMigration for converting a collection from a strategy to another.
+ */
+public interface RecordHashStrategy
+{
+    /**
+     * @return The name under which the strategy is recorded alongside stored versions.
+     */
+    String name();
+
+    /**
+     *
+     * @param document
+     * @return The hash of the document in hexadecimal form, independent of its key ordering.
+     */
+    String hash(BSONObject document);
+
+    /**
+     * The historical strategy, a 64-bit CityHash.
+     *
+     * @return
+     */
+    static RecordHashStrategy city()
+    {
+        return Strategies.CITY;
+    }
+
+    /**
+     * A 64-bit xxHash3, significantly faster than CityHash on large documents.
+     *
+     * @return
+     */
+    static RecordHashStrategy xx3()
+    {
+        return Strategies.XX3;
+    }
+
+    /**
+     * A 64-bit wyHash (version 3).
+     *
+     * @return
+     */
+    static RecordHashStrategy wy3()
+    {
+        return Strategies.WY3;
+    }
+
+    /**
+     * A 128-bit xxHash3, for collections large enough for 64-bit collisions to become a concern.
+     *
+     * @return
+     */
+    static RecordHashStrategy xx128()
+    {
+        return Strategies.XX128;
+    }
+
+    /**
+     *
+     * @param name
+     * @return
+     * @throws IllegalArgumentException If no strategy is known under the provided name.
+     */
+    static RecordHashStrategy forName(String name)
+    {
+        for (RecordHashStrategy strategy : Strategies.ALL)
+        {
+            if (strategy.name().equals(name))
+                return strategy;
+        }
+        throw new IllegalArgumentException("Unknown hash strategy " + name);
+    }
+
+    final class Strategies
+    {
+        private static final RecordHashStrategy CITY = new CanonicalHasher("city_1_1", LongHashFunction.city_1_1());
+        private static final RecordHashStrategy XX3 = new CanonicalHasher("xx3", LongHashFunction.xx3());
+        private static final RecordHashStrategy WY3 = new CanonicalHasher("wy_3", LongHashFunction.wy_3());
+        private static final RecordHashStrategy XX128 = new CanonicalTupleHasher("xx128", LongTupleHashFunction.xx128());
+        private static final RecordHashStrategy[] ALL = { CITY, XX3, WY3, XX128 };
+
+        private Strategies() {}
+    }
+}
@@ -0,0 +1,101 @@
+package com.lumiomedical.record.store.mongodb.index;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An IndexBuild tracks the creation of the indexes an IndexManager found missing, it can be polled for progress or awaited.
+ */
+public final class IndexBuild
+{
+    private final List<String> names;
+    private final AtomicInteger built;
+    private final CompletableFuture<Void> future;
+
+    /**
+     *
+     * @param names
+     */
+    IndexBuild(List<String> names)
+    {
+        this.names = names;
+        this.built = new AtomicInteger();
+        this.future = new CompletableFuture<>();
+
+        if (names.isEmpty())
+            this.future.complete(null);
+    }
+
+    /**
+     * @return The names of the indexes that were missing, in build order.
+     */
+    public List<String> getNames()
+    {
+        return this.names;
+    }
+
+    /**
+     * @return The number of indexes that were missing.
+     */
+    public int getTotal()
+    {
+        return this.names.size();
+    }
+
+    /**
+     * @return The number of missing indexes that were built so far.
+     */
+    public int getBuilt()
+    {
+        return this.built.get();
+    }
+
+    /**
+     * @return Whether the build is over, either because all indexes were built or because one of them failed.
+     */
+    public boolean isDone()
+    {
+        return this.future.isDone();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public CompletableFuture<Void> future()
+    {
+        return this.future;
+    }
+
+    /**
+     * Blocks until the build is over.
+     */
+    public void await()
+    {
+        try {
+            this.future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     * @return The number of missing indexes built so far, including the one that was just built.
+     */
+    int increment()
+    {
+        return this.built.incrementAndGet();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IndexBuild(built=" + this.getBuilt() + ", total=" + this.getTotal() + ", done=" + this.isDone() + ")";
+    }
+}
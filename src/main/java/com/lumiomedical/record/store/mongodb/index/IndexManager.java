@@ -0,0 +1,206 @@
+package com.lumiomedical.record.store.mongodb.index;
+
+import com.lumiomedical.record.logging.Logging;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IndexManager compares a collection's desired indexes with the ones it already has, and only creates the missing ones.
+ * When everything is already in place, which is the usual case at startup, this amounts to a single listIndexes command.
+ */
+public final class IndexManager
+{
+    private final MongoCollection<Document> collection;
+
+    /**
+     *
+     * @param collection
+     */
+    public IndexManager(MongoCollection<Document> collection)
+    {
+        this.collection = collection;
+    }
+
+    /**
+     * Lists the desired indexes for which the collection has no index over the same keys.
+     * An existing index over the same keys but with different options is not considered missing, as it couldn't be created anyway: a warning is logged instead.
+     *
+     * @param desired
+     * @return
+     */
+    public List<IndexModel> listMissing(List<IndexModel> desired)
+    {
+        List<BsonDocument> existing = new ArrayList<>();
+        for (BsonDocument index : this.collection.listIndexes(BsonDocument.class))
+            existing.add(index);
+
+        List<IndexModel> missing = new ArrayList<>();
+        for (IndexModel model : desired)
+        {
+            BsonDocument keys = this.keys(model);
+            BsonDocument match = null;
+            for (BsonDocument index : existing)
+            {
+                if (sameKeys(keys, index.getDocument("key"))) {
+                    match = index;
+                    break;
+                }
+            }
+
+            if (match == null)
+                missing.add(model);
+            else if (match.getBoolean("unique", BsonBoolean.FALSE).getValue() != Boolean.TRUE.equals(model.getOptions().isUnique()))
+                Logging.logger.warn("Index " + match.getString("name").getValue() + " on " + this.collection.getNamespace() + " exists with a different unique option than the one expected");
+        }
+
+        return missing;
+    }
+
+    /**
+     * Creates the missing indexes one after the other using the provided executor, the returned IndexBuild can be used for tracking their progress.
+     * Indexes are requested with the background option, so that servers prior to 4.2 don't lock the collection for the duration of the build; later servers always build indexes without holding such a lock.
+     *
+     * @param desired
+     * @param executor An executor, a build running on the calling thread will be over by the time this method returns
+     * @return
+     */
+    public IndexBuild build(List<IndexModel> desired, Executor executor)
+    {
+        List<IndexModel> missing = this.listMissing(desired);
+        List<String> names = new ArrayList<>(missing.size());
+        for (IndexModel model : missing)
+            names.add(this.name(model));
+
+        IndexBuild build = new IndexBuild(names);
+        if (missing.isEmpty())
+            return build;
+
+        CompletableFuture.runAsync(() -> {
+            for (int i = 0 ; i < missing.size() ; ++i)
+            {
+                IndexModel model = missing.get(i);
+                IndexOptions options = copy(model.getOptions()).background(true).name(names.get(i));
+
+                this.collection.createIndex(model.getKeys(), options);
+
+                Logging.logger.info("Built index " + names.get(i) + " on " + this.collection.getNamespace() + " (" + build.increment() + "/" + build.getTotal() + ")");
+            }
+        }, executor).whenComplete((result, e) -> {
+            if (e == null)
+                build.future().complete(null);
+            else {
+                Logging.logger.error("Index build on " + this.collection.getNamespace() + " failed after " + build.getBuilt() + "/" + build.getTotal() + " indexes: " + e.getMessage(), e);
+                build.future().completeExceptionally(e.getCause() != null ? e.getCause() : e);
+            }
+        });
+
+        return build;
+    }
+
+    /**
+     * Copies index options, so that the ones requested for a build can be adjusted without altering the caller's models.
+     *
+     * @param options
+     * @return
+     */
+    private static IndexOptions copy(IndexOptions options)
+    {
+        IndexOptions copy = new IndexOptions()
+            .background(options.isBackground())
+            .unique(options.isUnique())
+            .name(options.getName())
+            .sparse(options.isSparse())
+            .version(options.getVersion())
+            .weights(options.getWeights())
+            .defaultLanguage(options.getDefaultLanguage())
+            .languageOverride(options.getLanguageOverride())
+            .textVersion(options.getTextVersion())
+            .sphereVersion(options.getSphereVersion())
+            .bits(options.getBits())
+            .min(options.getMin())
+            .max(options.getMax())
+            .storageEngine(options.getStorageEngine())
+            .partialFilterExpression(options.getPartialFilterExpression())
+            .collation(options.getCollation());
+
+        if (options.getExpireAfter(TimeUnit.SECONDS) != null)
+            copy.expireAfter(options.getExpireAfter(TimeUnit.SECONDS), TimeUnit.SECONDS);
+
+        return copy;
+    }
+
+    /**
+     *
+     * @param model
+     * @return
+     */
+    private BsonDocument keys(IndexModel model)
+    {
+        return model.getKeys().toBsonDocument(BsonDocument.class, this.collection.getCodecRegistry());
+    }
+
+    /**
+     * Produces the index name, following the server's own naming convention when none was specified.
+     *
+     * @param model
+     * @return
+     */
+    private String name(IndexModel model)
+    {
+        if (model.getOptions().getName() != null)
+            return model.getOptions().getName();
+
+        StringBuilder name = new StringBuilder();
+        for (Map.Entry<String, BsonValue> key : this.keys(model).entrySet())
+        {
+            if (name.length() > 0)
+                name.append('_');
+            name.append(key.getKey()).append('_').append(key.getValue().isNumber() ? key.getValue().asNumber().intValue() : key.getValue().asString().getValue());
+        }
+        return name.toString();
+    }
+
+    /**
+     * Compares index keys in order, numeric directions being compared by value as servers may report 1 as an int, a long or a double.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    private static boolean sameKeys(BsonDocument a, BsonDocument b)
+    {
+        if (a.size() != b.size())
+            return false;
+
+        Iterator<Map.Entry<String, BsonValue>> ita = a.entrySet().iterator();
+        Iterator<Map.Entry<String, BsonValue>> itb = b.entrySet().iterator();
+        while (ita.hasNext())
+        {
+            Map.Entry<String, BsonValue> ea = ita.next();
+            Map.Entry<String, BsonValue> eb = itb.next();
+
+            if (!ea.getKey().equals(eb.getKey()))
+                return false;
+            if (ea.getValue().isNumber() && eb.getValue().isNumber()) {
+                if (ea.getValue().asNumber().doubleValue() != eb.getValue().asNumber().doubleValue())
+                    return false;
+            }
+            else if (!ea.getValue().equals(eb.getValue()))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package com.lumiomedical.record.store.mongodb.planner;
+
+import org.bson.types.ObjectId;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The concrete operations a TemporalWritePlanner came up with for a given uid.
+ * They are meant to be applied in order: deletes, then updates, then inserts.
+ */
+public final class TemporalWritePlan
+{
+    private final List<ObjectId> deletes;
+    private final List<Version> updates;
+    private final List<Version> inserts;
+
+    /**
+     *
+     * @param deletes
+     * @param updates
+     * @param inserts
+     */
+    TemporalWritePlan(List<ObjectId> deletes, List<Version> updates, List<Version> inserts)
+    {
+        this.deletes = Collections.unmodifiableList(deletes);
+        this.updates = Collections.unmodifiableList(updates);
+        this.inserts = Collections.unmodifiableList(inserts);
+    }
+
+    /**
+     * @return The ids of stored versions that have to be removed.
+     */
+    public List<ObjectId> getDeletes()
+    {
+        return this.deletes;
+    }
+
+    /**
+     * @return The stored versions whose validity interval has to be updated, see Version.hasStartChanged and Version.hasEndChanged.
+     */
+    public List<Version> getUpdates()
+    {
+        return this.updates;
+    }
+
+    /**
+     * @return The versions that have to be inserted.
+     */
+    public List<Version> getInserts()
+    {
+        return this.inserts;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.deletes.isEmpty() && this.updates.isEmpty() && this.inserts.isEmpty();
+    }
+
+    /**
+     * @return The number of operations in the plan.
+     */
+    public int size()
+    {
+        return this.deletes.size() + this.updates.size() + this.inserts.size();
+    }
+}
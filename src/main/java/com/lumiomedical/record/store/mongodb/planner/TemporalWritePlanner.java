@@ -0,0 +1,189 @@
+package com.lumiomedical.record.store.mongodb.planner;
+
+import com.lumiomedical.record.Referential;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A TemporalWritePlanner computes, for a single uid, the concrete operations that a sequence of puts amounts to.
+ *
+ * It starts from the uid's stored timeline, applies each put in memory with exactly the semantics of the server-side operations
+ * issued by MongoDBRecordStore (including the "early segment preserved, late segment removed" rule of time segments), and finally
+ * compares the result with the stored timeline. Only versions that actually have to be removed, updated or inserted end up in the plan.
+ *
+ * Where the server-side operations would update a single document out of several matching ones, the planner picks the one with the earliest validity_start,
+ * which is the order in which the (uid, hash, validity_start) and (uid, validity_start) indexes yield them.
+ */
+public final class TemporalWritePlanner
+{
+    private final List<Version> stored;
+    private final List<Version> versions;
+
+    /**
+     *
+     * @param timeline Every stored version of the uid
+     */
+    public TemporalWritePlanner(Collection<Version> timeline)
+    {
+        this.stored = new ArrayList<>(timeline);
+        this.versions = new ArrayList<>(timeline);
+    }
+
+    /**
+     *
+     * @param referential
+     * @param hash
+     * @param document The document to insert if the put results in a new version, without its validity fields
+     * @return
+     * @throws IllegalArgumentException If the provided Referential is a Referential.any() instance or if it's in an unknown state.
+     */
+    public TemporalWritePlanner put(Referential referential, String hash, BasicDBObject document)
+    {
+        if (referential.isNow())
+            return this.at(Instant.now(), hash, document);
+        else if (referential.isAt())
+            return this.at(referential.asAt().getAt(), hash, document);
+        else if (referential.isBetween())
+            return this.between(referential.asBetween().getFrom(), referential.asBetween().getTo(), hash, document);
+        else if (referential.isAny())
+            throw new IllegalArgumentException("Cannot use Referential.any() for insertion.");
+        else
+            throw new IllegalArgumentException("The provided Referential instance is in an unknown state.");
+    }
+
+    /**
+     * Inserts a "time ray" starting at the provided instant, see MongoDBRecordStore.addPutOperation.
+     *
+     * @param start
+     * @param hash
+     * @param document
+     * @return
+     */
+    public TemporalWritePlanner at(Instant start, String hash, BasicDBObject document)
+    {
+        /* Full overlaps are removed */
+        this.versions.removeIf(v -> !v.getHash().equals(hash) && !v.getStart().isBefore(start));
+
+        /* A version with the same hash that is open or ends after the start is reopened, otherwise a new version is created */
+        Version current = this.earliest(v -> v.getHash().equals(hash) && (v.isOpen() || !v.getEnd().isBefore(start)));
+        if (current != null)
+            current.setEnd(null).setStart(min(current.getStart(), start));
+        else
+            this.versions.add(Version.created(hash, document, start, null));
+
+        /* A partial overlap is truncated */
+        Version previous = this.earliest(v -> !v.getHash().equals(hash) && v.getStart().isBefore(start) && (v.isOpen() || v.getEnd().isAfter(start)));
+        if (previous != null)
+            previous.setEnd(start);
+
+        return this;
+    }
+
+    /**
+     * Inserts a "time segment" between the provided instants, see MongoDBRecordStore.addPutOperation.
+     * Note that none of these operations ever match an open version.
+     *
+     * @param from
+     * @param to
+     * @param hash
+     * @param document
+     * @return
+     */
+    public TemporalWritePlanner between(Instant from, Instant to, String hash, BasicDBObject document)
+    {
+        /* Full overlaps are removed */
+        this.versions.removeIf(v -> !v.isOpen() && !v.getHash().equals(hash) && !v.getStart().isBefore(from) && !v.getEnd().isAfter(to));
+
+        /* A version with the same hash that overlaps the segment is extended, otherwise a new version is created */
+        Version current = this.earliest(v -> !v.isOpen() && v.getHash().equals(hash) && (
+            (!v.getStart().isAfter(from) && !v.getEnd().isBefore(from))
+            || (!v.getStart().isAfter(to) && !v.getEnd().isBefore(to))
+            || (!v.getStart().isBefore(from) && !v.getEnd().isAfter(to))
+        ));
+        if (current != null)
+            current.setStart(min(current.getStart(), from)).setEnd(max(current.getEnd(), to));
+        else
+            this.versions.add(Version.created(hash, document, from, to));
+
+        /* A partial overlap from the left side is truncated on the right side */
+        Version left = this.earliest(v -> !v.isOpen() && !v.getHash().equals(hash) && v.getStart().isBefore(from) && v.getEnd().isAfter(from));
+        if (left != null)
+            left.setEnd(from);
+
+        /* A partial overlap from the right side is truncated on the left side */
+        Version right = this.earliest(v -> !v.isOpen() && !v.getHash().equals(hash) && v.getStart().isBefore(to) && v.getEnd().isAfter(to));
+        if (right != null)
+            right.setStart(to);
+
+        return this;
+    }
+
+    /**
+     * @return The operations required for turning the stored timeline into the planned one.
+     */
+    public TemporalWritePlan plan()
+    {
+        Set<ObjectId> remaining = new HashSet<>();
+        for (Version version : this.versions)
+            remaining.add(version.getId());
+
+        List<ObjectId> deletes = new ArrayList<>();
+        List<Version> updates = new ArrayList<>();
+        for (Version version : this.stored)
+        {
+            if (!remaining.contains(version.getId()))
+                deletes.add(version.getId());
+            else if (version.hasStartChanged() || version.hasEndChanged())
+                updates.add(version);
+        }
+
+        List<Version> inserts = new ArrayList<>();
+        for (Version version : this.versions)
+        {
+            if (version.isCreated())
+                inserts.add(version);
+        }
+
+        return new TemporalWritePlan(deletes, updates, inserts);
+    }
+
+    /**
+     * @return The versions of the planned timeline, ordered by validity start.
+     */
+    public List<Version> timeline()
+    {
+        List<Version> timeline = new ArrayList<>(this.versions);
+        timeline.sort(Comparator.comparing(Version::getStart));
+        return timeline;
+    }
+
+    /**
+     *
+     * @param predicate
+     * @return The matching version with the earliest validity start, or null if there is none.
+     */
+    private Version earliest(Predicate<Version> predicate)
+    {
+        Version earliest = null;
+        for (Version version : this.versions)
+        {
+            if (predicate.test(version) && (earliest == null || version.getStart().isBefore(earliest.getStart())))
+                earliest = version;
+        }
+        return earliest;
+    }
+
+    private static Instant min(Instant a, Instant b)
+    {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static Instant max(Instant a, Instant b)
+    {
+        return a.isAfter(b) ? a : b;
+    }
+}
@@ -0,0 +1,128 @@
+package com.lumiomedical.record.store.mongodb.planner;
+
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A Version is the planner's view of a record version: its identity, hash and validity interval.
+ * Versions are either already stored, or created by the plan in which case they carry the document to insert.
+ */
+public final class Version
+{
+    private final ObjectId id;
+    private final String hash;
+    private final BasicDBObject document;
+    private final Instant storedStart;
+    private final Instant storedEnd;
+    private Instant start;
+    private Instant end;
+
+    private Version(ObjectId id, String hash, BasicDBObject document, Instant storedStart, Instant storedEnd)
+    {
+        this.id = id;
+        this.hash = hash;
+        this.document = document;
+        this.storedStart = storedStart;
+        this.storedEnd = storedEnd;
+        this.start = storedStart;
+        this.end = storedEnd;
+    }
+
+    /**
+     *
+     * @param id
+     * @param hash
+     * @param start
+     * @param end The validity end, null for an open version
+     * @return
+     */
+    public static Version stored(ObjectId id, String hash, Instant start, Instant end)
+    {
+        return new Version(id, hash, null, start, end);
+    }
+
+    /**
+     *
+     * @param hash
+     * @param document The document to insert, without its _id and validity fields
+     * @param start
+     * @param end
+     * @return
+     */
+    static Version created(String hash, BasicDBObject document, Instant start, Instant end)
+    {
+        return new Version(new ObjectId(), hash, document, start, end);
+    }
+
+    public ObjectId getId()
+    {
+        return this.id;
+    }
+
+    public String getHash()
+    {
+        return this.hash;
+    }
+
+    /**
+     * @return The document to insert for a created version, null for a stored one.
+     */
+    public BasicDBObject getDocument()
+    {
+        return this.document;
+    }
+
+    public Instant getStart()
+    {
+        return this.start;
+    }
+
+    /**
+     * @return The validity end, null for an open version.
+     */
+    public Instant getEnd()
+    {
+        return this.end;
+    }
+
+    public boolean isCreated()
+    {
+        return this.document != null;
+    }
+
+    public boolean isOpen()
+    {
+        return this.end == null;
+    }
+
+    public boolean hasStartChanged()
+    {
+        return !Objects.equals(this.start, this.storedStart);
+    }
+
+    public boolean hasEndChanged()
+    {
+        return !Objects.equals(this.end, this.storedEnd);
+    }
+
+    Version setStart(Instant start)
+    {
+        this.start = start;
+        return this;
+    }
+
+    Version setEnd(Instant end)
+    {
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Version(" + this.id + ", " + this.hash + ", [" + this.start + ", " + this.end + "])";
+    }
+}
@@ -1,6 +1,7 @@
 package com.lumiomedical.record.source;
 
 import com.lumiomedical.record.model.MySource;
+import com.lumiomedical.record.store.model.SourcedRecordSources;
 import com.lumiomedical.record.source.register.IndexedSource;
 
 /**
@@ -13,4 +14,5 @@ public interface Sources
     SourceSetA A = new SourceSetA();
     SourceSetB B = new SourceSetB();
     MySource MySource = new MySource();
+    SourcedRecordSources Sourced = new SourcedRecordSources();
 }
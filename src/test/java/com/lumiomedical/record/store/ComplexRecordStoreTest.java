@@ -11,6 +11,7 @@ import com.noleme.store.query.Query;
 import org.junit.jupiter.api.*;
 
 import java.time.Instant;
+import java.util.List;
 
 /**
  * Mostly for testing hash computations, see SimpleRecordStoreTest for validity intervals and Referential computations.
@@ -104,6 +105,41 @@ public class ComplexRecordStoreTest
         Assertions.assertEquals(2, this.store.map(new Query()).keySet().size());
     }
 
+    @Test
+    void testView()
+    {
+        var r1 = provideRecord();
+        this.store.put(r1);
+
+        var view = this.store.findView(r1.getUid(), Referential.now(), List.of("name", "map", "sub_items"));
+
+        Assertions.assertEquals(r1.getUid(), view.getUid());
+        Assertions.assertEquals(this.store.find(r1.getUid()).getHash(), view.getHash());
+        Assertions.assertNotNull(view.getValidityStart());
+        Assertions.assertNull(view.getValidityEnd());
+        Assertions.assertEquals("MyNameIs", view.get("name"));
+        Assertions.assertEquals(true, view.get("map.meuh"));
+        Assertions.assertEquals(2, view.get("sub_items", List.class).size());
+        Assertions.assertEquals("SubMyNameIs2", view.get("sub_items.1.name"));
+        Assertions.assertEquals(3L, view.get("sub_items.0.age"));
+        Assertions.assertEquals(List.of("SubMyNameIs1", "SubMyNameIs2"), view.get("sub_items.name"));
+        Assertions.assertNull(view.get("sub_items.2.name"));
+        Assertions.assertNull(view.get("sub_items.unknown"));
+
+        Assertions.assertEquals(r1.getUid(), view.getFields().get("uid"));
+        Assertions.assertEquals(view.getHash(), view.getFields().get("hash"));
+        Assertions.assertEquals(view.getId(), view.getFields().get("_id"));
+        Assertions.assertTrue(view.getFields().containsKey("validity_end"));
+        Assertions.assertNull(view.getFields().get("validity_end"));
+
+        var views = this.store.listView(new Query(), Referential.now(), List.of("age"));
+
+        Assertions.assertEquals(1, views.size());
+        Assertions.assertEquals(12L, views.get(0).get("age", Long.class));
+        Assertions.assertNull(views.get(0).get("name"));
+        Assertions.assertNull(this.store.findView("unknown", Referential.now(), List.of("name")));
+    }
+
     /**
      *
      * @return
@@ -2,18 +2,41 @@ package com.lumiomedical.record.store;
 
 import com.lumiomedical.record.Record;
 import com.lumiomedical.record.Referential;
+import com.lumiomedical.record.store.cache.HistoryCache;
+import com.lumiomedical.record.store.cache.RecordCache;
 import com.lumiomedical.record.store.model.SimpleRecord;
+import com.lumiomedical.record.store.mongodb.CompactEncodingMigration;
 import com.lumiomedical.record.store.mongodb.MongoDBSimpleRecordStore;
+import com.lumiomedical.record.store.mongodb.OpenIntervalMigration;
+import com.lumiomedical.record.store.mongodb.RehashMigration;
 import com.lumiomedical.record.store.mongodb.TestHelper;
+import com.lumiomedical.record.store.mongodb.codec.RecordDocumentCodec;
+import com.lumiomedical.record.store.mongodb.factory.SimpleRecordCodec;
 import com.lumiomedical.record.store.mongodb.factory.SimpleRecordFactory;
+import com.lumiomedical.record.store.mongodb.hash.RecordHashStrategy;
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClientSettings;
 import com.noleme.commons.time.TimeHelper;
 import com.noleme.mongodb.MongoDBClientException;
 import com.noleme.store.query.Identifier;
 import com.noleme.store.query.Query;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
 import org.junit.jupiter.api.*;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * @author Pierre Lecerf (plecerf@lumiomedical.com)
@@ -427,6 +450,817 @@ public class SimpleRecordStoreTest
         Assertions.assertEquals(dbR1f.getValidityEnd(), dbR8.getValidityStart());
     }
 
+    @Test
+    void testPutChanged()
+    {
+        /* We persist two records in a single batch, both are new */
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+
+        var report1 = this.store.putChanged(List.of(r1, r2));
+
+        Assertions.assertEquals(2, report1.getWritten());
+        Assertions.assertEquals(0, report1.getSkipped());
+        Assertions.assertEquals(0, report1.getTruncated());
+        Assertions.assertEquals(2, this.store.count(Referential.any()));
+
+        /*
+         * We re-import both records along with a third one, only r2 is modified.
+         * r1 should be skipped, r2 should close its previous version and r3 should be inserted.
+         */
+        var r3 = provideRecord().setAge(20L);
+        r2.setName("Meh");
+
+        var report2 = this.store.putChanged(List.of(r1, r2, r3));
+
+        Assertions.assertEquals(2, report2.getWritten());
+        Assertions.assertEquals(1, report2.getSkipped());
+        Assertions.assertEquals(1, report2.getTruncated());
+        Assertions.assertEquals(4, this.store.count(Referential.any()));
+        Assertions.assertEquals(3, this.store.count());
+
+        /* An identical re-import shouldn't write anything */
+        var report3 = this.store.putChanged(List.of(r1, r2, r3));
+
+        Assertions.assertEquals(0, report3.getWritten());
+        Assertions.assertEquals(3, report3.getSkipped());
+        Assertions.assertEquals(4, this.store.count(Referential.any()));
+    }
+
+    @Test
+    void testParallelPut()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+        var pool = new ForkJoinPool(4);
+
+        try {
+            mongoStore.setPreparationPool(pool);
+
+            /* r1 appears twice in the batch, both occurrences should share a single uid and end up as a single version */
+            var r1 = provideRecord();
+            var records = new ArrayList<SimpleRecord>();
+            records.add(r1);
+            for (int i = 0 ; i < 100 ; ++i)
+                records.add(provideRecord().setAge((long) i));
+            records.add(r1);
+
+            this.store.put(records);
+
+            Assertions.assertEquals(101, this.store.count());
+            Assertions.assertEquals(101, this.store.count(Referential.any()));
+            Assertions.assertNotNull(r1.getUid());
+            Assertions.assertEquals(17L, this.store.find(r1.getUid()).getAge());
+        }
+        finally {
+            mongoStore.setPreparationPool(null);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testChunkedPut()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+        var failing = new SimpleRecordFactory() {
+            @Override
+            public BasicDBObject transcript(SimpleRecord input)
+            {
+                if ("Fail".equals(input.getName()))
+                    throw new IllegalStateException("Transcription failure");
+                return super.transcript(input);
+            }
+        };
+
+        var a1 = provideRecord("chunk-a");
+        var b = provideRecord("chunk-b");
+        var a2 = provideRecord("chunk-a").setAge(12L);
+        var c = provideRecord("chunk-c");
+        var d = provideRecord("chunk-d").setName("Fail");
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            mongoStore.setChunkSize(2);
+
+            var report = mongoStore.putChunked(List.of(a1, b, a2, c, d), Referential.now(), failing);
+
+            /* Both versions of chunk-a land in the same chunk, chunk-d fails on its own */
+            Assertions.assertEquals(3, report.getChunks().size());
+            Assertions.assertEquals(Set.of("chunk-a"), report.getChunks().get(0).getUids());
+            Assertions.assertEquals(2, report.getChunks().get(0).getSize());
+            Assertions.assertEquals(Set.of("chunk-b", "chunk-c"), report.getChunks().get(1).getUids());
+            Assertions.assertFalse(report.isSuccessful());
+            Assertions.assertEquals(1, report.getFailures().size());
+            Assertions.assertEquals(Set.of("chunk-d"), report.getFailures().get(0).getUids());
+            Assertions.assertTrue(report.getFailures().get(0).getFailure() instanceof IllegalStateException);
+            Assertions.assertEquals(4, report.getReport().getWritten());
+
+            Assertions.assertEquals(12L, this.store.find("chunk-a").getAge());
+            Assertions.assertNotNull(this.store.find("chunk-c"));
+            Assertions.assertNull(this.store.find("chunk-d"));
+
+            /* Same outcome with chunks committed concurrently */
+            this.store.remove(new Query());
+            mongoStore.setChunkExecutor(executor);
+
+            report = mongoStore.putChunked(List.of(a1, b, a2, c, d), Referential.now(), failing);
+            Assertions.assertEquals(1, report.getFailures().size());
+            Assertions.assertEquals(4, report.getReport().getWritten());
+            Assertions.assertEquals(3, this.store.count(Referential.now()));
+        }
+        finally {
+            mongoStore.setChunkSize(0);
+            mongoStore.setChunkExecutor(null);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testRehashMigration()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+        this.store.put(List.of(r1, r2));
+
+        try {
+            /* Once migrated, a re-import with the new strategy shouldn't produce any new version */
+            long updated = new RehashMigration<>(mongoStore, RecordHashStrategy.xx3()).setBatchSize(1).run();
+            mongoStore.setHashStrategy(RecordHashStrategy.xx3());
+
+            Assertions.assertEquals(2, updated);
+            Assertions.assertEquals(0, new RehashMigration<>(mongoStore, RecordHashStrategy.xx3()).run());
+
+            var report = this.store.putChanged(List.of(r1, r2));
+
+            Assertions.assertEquals(2, report.getSkipped());
+            Assertions.assertEquals(2, this.store.count(Referential.any()));
+            Assertions.assertEquals(RecordHashStrategy.xx3().hash(new SimpleRecordFactory().transcript(r1)), this.store.find(r1.getUid()).getHash());
+        }
+        finally {
+            mongoStore.setHashStrategy(RecordHashStrategy.city());
+        }
+    }
+
+    @Test
+    void testRehashMigrationWindow()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+        this.store.put(List.of(r1, r2));
+
+        try {
+            /* Stored versions are converted while the store still hashes with the previous strategy */
+            mongoStore.acceptHashStrategy(RecordHashStrategy.xx3());
+            Assertions.assertEquals(2, new RehashMigration<>(mongoStore, RecordHashStrategy.xx3()).run());
+
+            this.store.put(List.of(r1, r2));
+            Assertions.assertEquals(2, this.store.count(Referential.any()));
+            Assertions.assertEquals(2, this.store.putChanged(List.of(r1, r2)).getSkipped());
+
+            /* This one is written with the previous strategy */
+            this.store.put(r2.setName("Meh"));
+            Assertions.assertEquals(3, this.store.count(Referential.any()));
+
+            /* The store switches strategy before the second run */
+            mongoStore.setHashStrategy(RecordHashStrategy.xx3()).acceptHashStrategy(RecordHashStrategy.city());
+
+            this.store.put(List.of(r1, r2));
+            Assertions.assertEquals(2, this.store.putChanged(List.of(r1, r2)).getSkipped());
+            mongoStore.setPlannedWrites(true);
+            this.store.put(List.of(r1, r2));
+            mongoStore.setPlannedWrites(false);
+            Assertions.assertEquals(3, this.store.count(Referential.any()));
+
+            Assertions.assertEquals(1, new RehashMigration<>(mongoStore, RecordHashStrategy.xx3()).run());
+
+            /* The whole sequence at once */
+            mongoStore.revokeHashStrategy(RecordHashStrategy.city());
+            Assertions.assertEquals(3, new RehashMigration<>(mongoStore, RecordHashStrategy.city()).migrate());
+            Assertions.assertEquals(RecordHashStrategy.city(), mongoStore.getHashStrategy());
+            Assertions.assertTrue(mongoStore.getAcceptedHashStrategies().contains(RecordHashStrategy.xx3()));
+
+            this.store.put(List.of(r1, r2));
+            Assertions.assertEquals(3, this.store.count(Referential.any()));
+        }
+        finally {
+            mongoStore.setPlannedWrites(false);
+            mongoStore.setHashStrategy(RecordHashStrategy.city());
+            mongoStore.revokeHashStrategy(RecordHashStrategy.xx3());
+            mongoStore.revokeHashStrategy(RecordHashStrategy.city());
+        }
+    }
+
+    @Test
+    void testRehashMigrationTranscriber()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+        var transcriber = new SimpleRecordFactory() {
+            @Override
+            public BasicDBObject transcript(SimpleRecord input)
+            {
+                /* One of the fields prepare adds, and one the store's Factory doesn't produce */
+                return super.transcript(input)
+                    .append("official_validity_start", null)
+                    .append("origin", "import");
+            }
+        };
+
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+        mongoStore.put(List.of(r1, r2), Referential.now(), transcriber);
+
+        try {
+            mongoStore.acceptHashStrategy(RecordHashStrategy.xx3());
+            Assertions.assertEquals(2, new RehashMigration<>(mongoStore, RecordHashStrategy.xx3()).setTranscriber(transcriber).run());
+
+            /* Both the store's hash and the accepted one are computed over the transcript as the Transcriber produced it */
+            mongoStore.put(List.of(r1, r2), Referential.now(), transcriber);
+            Assertions.assertEquals(2, this.store.count(Referential.any()));
+            Assertions.assertEquals(2, mongoStore.putChanged(List.of(r1, r2), Referential.now(), transcriber).getSkipped());
+        }
+        finally {
+            mongoStore.revokeHashStrategy(RecordHashStrategy.xx3());
+        }
+    }
+
+    @Test
+    void testCompactEncoding()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+        this.store.put(List.of(r1, r2));
+
+        try {
+            mongoStore.setCompactEncoding(true);
+            Assertions.assertEquals(2, new CompactEncodingMigration<>(mongoStore).run());
+            Assertions.assertEquals(0, new CompactEncodingMigration<>(mongoStore).run());
+
+            /* Records are read back with their original uid and hash, and an unchanged re-import doesn't write anything */
+            var dbR1 = this.store.find(r1.getUid());
+            Assertions.assertEquals(r1.getUid(), dbR1.getUid());
+            Assertions.assertEquals(r1.getHash(), dbR1.getHash());
+            Assertions.assertEquals(2, this.store.list(List.of(r1.getUid(), r2.getUid())).size());
+            Assertions.assertEquals(2, this.store.map(List.of(r1.getUid(), r2.getUid())).size());
+            Assertions.assertEquals(2, this.store.putChanged(List.of(r1, r2)).getSkipped());
+
+            r2.setName("Meh");
+            this.store.put(r2);
+
+            Assertions.assertEquals(3, this.store.count(Referential.any()));
+            Assertions.assertEquals("Meh", this.store.find(r2.getUid()).getName());
+        }
+        finally {
+            mongoStore.setCompactEncoding(false);
+            new CompactEncodingMigration<>(mongoStore).run();
+        }
+    }
+
+    @Test
+    void testOpenEndSentinel()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var r1 = provideRecord();
+        this.store.put(r1, Referential.at(daysAgo(10)));
+
+        try {
+            mongoStore.setOpenEndSentinel(true);
+            Assertions.assertEquals(1, new OpenIntervalMigration<>(mongoStore).run());
+
+            /* Open versions are still exposed with a null validity_end */
+            Assertions.assertNull(this.store.find(r1.getUid()).getValidityEnd());
+            Assertions.assertNotNull(this.store.find(r1.getUid(), Referential.at(daysAgo(5))));
+
+            r1.setName("Meh");
+            this.store.put(r1, Referential.at(daysAgo(5)));
+
+            var previous = this.store.find(r1.getUid(), Referential.at(daysAgo(7)));
+            var current = this.store.find(r1.getUid());
+
+            Assertions.assertEquals("Meuh", previous.getName());
+            Assertions.assertEquals(current.getValidityStart(), previous.getValidityEnd());
+            Assertions.assertNull(current.getValidityEnd());
+            Assertions.assertEquals(1, this.store.count());
+
+            /* A "time segment" inserted in the past shouldn't touch the open version */
+            r1.setName("Muh");
+            this.store.put(r1, Referential.between(daysAgo(9), daysAgo(8)));
+
+            Assertions.assertEquals(3, this.store.count(Referential.any()));
+            Assertions.assertEquals("Meh", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals(1, this.store.putChanged(List.of(r1.setName("Meh"))).getSkipped());
+        }
+        finally {
+            mongoStore.setOpenEndSentinel(false);
+            new OpenIntervalMigration<>(mongoStore).run();
+        }
+    }
+
+    @Test
+    void testPlannedWrites()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var d10 = daysAgo(10);
+        var d9 = daysAgo(9);
+        var d8 = daysAgo(8);
+        var d6 = daysAgo(6);
+        var d4 = daysAgo(4);
+        var d2 = daysAgo(2);
+
+        var r1 = provideRecord();
+        this.store.put(r1, Referential.at(d10));
+
+        try {
+            mongoStore.setPlannedWrites(true);
+
+            /* A backfill of several versions for the same uid, out of order */
+            this.store.putAt(List.of(
+                new Referentialized<>(provideRecord(r1.getUid()).setName("C"), Referential.at(d2)),
+                new Referentialized<>(provideRecord(r1.getUid()).setName("B"), Referential.at(d6)),
+                new Referentialized<>(provideRecord(r1.getUid()).setName("C"), Referential.at(d4))
+            ));
+
+            Assertions.assertEquals(3, this.store.count(Referential.any()));
+            Assertions.assertEquals("Meuh", this.store.find(r1.getUid(), Referential.at(d8)).getName());
+            Assertions.assertEquals("B", this.store.find(r1.getUid(), Referential.at(daysAgo(5))).getName());
+            Assertions.assertEquals("C", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals(d4, this.store.find(r1.getUid()).getValidityStart());
+
+            /* A "time segment" in the middle of "Meuh": the early part is preserved, the late part is removed */
+            this.store.put(provideRecord(r1.getUid()).setName("D"), Referential.between(d9, d8));
+
+            Assertions.assertEquals(4, this.store.count(Referential.any()));
+            Assertions.assertEquals(d9, this.store.find(r1.getUid(), Referential.at(d10)).getValidityEnd());
+            Assertions.assertNull(this.store.find(r1.getUid(), Referential.at(daysAgo(7))));
+
+            /* Re-importing the current version doesn't change anything */
+            this.store.put(provideRecord(r1.getUid()).setName("C"));
+
+            Assertions.assertEquals(4, this.store.count(Referential.any()));
+        }
+        finally {
+            mongoStore.setPlannedWrites(false);
+        }
+    }
+
+    @Test
+    void testStream()
+    {
+        ((MongoDBSimpleRecordStore) this.store).setStreamBatchSize(2);
+
+        var r1 = provideRecord();
+        this.store.put(r1);
+        r1.setName("Meh");
+        this.store.put(r1);
+        this.store.put(List.of(provideRecord().setAge(12L), provideRecord().setAge(20L)));
+
+        try (var stream = this.store.stream(new Query())) {
+            Assertions.assertEquals(3, stream.count());
+        }
+        try (var stream = this.store.stream(new Query(), Referential.any())) {
+            Assertions.assertEquals(4, stream.count());
+        }
+
+        var names = new ArrayList<String>();
+        this.store.forEach(new Query("uid", r1.getUid()), Referential.any(), record -> names.add(record.getName()));
+
+        Assertions.assertEquals(2, names.size());
+        Assertions.assertTrue(names.containsAll(List.of("Meuh", "Meh")));
+    }
+
+    @Test
+    void testPage()
+    {
+        var records = new ArrayList<SimpleRecord>();
+        for (int i = 0 ; i < 5 ; ++i)
+            records.add(provideRecord().setAge((long) i));
+        this.store.put(records);
+
+        records.get(0).setName("Meh");
+        this.store.put(records.get(0));
+
+        var uids = new ArrayList<String>();
+        String token = null;
+        int pages = 0;
+        do {
+            var page = this.store.page(new Query(), Referential.any(), 2, token);
+            page.getItems().forEach(record -> uids.add(record.getUid()));
+            token = page.getNextToken();
+            pages++;
+        }
+        while (token != null);
+
+        /* 6 versions over 3 pages, ordered by uid then validity_start */
+        Assertions.assertEquals(3, pages);
+        Assertions.assertEquals(6, uids.size());
+        var sorted = new ArrayList<>(uids);
+        sorted.sort(String::compareTo);
+        Assertions.assertEquals(sorted, uids);
+
+        Assertions.assertEquals(5, this.store.page(new Query(), 10, null).getItems().size());
+        Assertions.assertFalse(this.store.page(new Query(), 10, null).hasNext());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> this.store.page(new Query(), 10, "not a token"));
+    }
+
+    @Test
+    void testPageMixedUids()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        try {
+            /* UUID uids are stored as binaries while the others remain strings */
+            mongoStore.setCompactEncoding(true);
+
+            var records = new ArrayList<SimpleRecord>();
+            for (int i = 0 ; i < 3 ; ++i)
+            {
+                records.add(provideRecord().setAge((long) i));
+                records.add(provideRecord("page-" + i).setAge((long) i));
+            }
+            this.store.put(records);
+
+            var uids = new ArrayList<String>();
+            String token = null;
+            do {
+                var page = this.store.page(new Query(), 1, token);
+                page.getItems().forEach(record -> uids.add(record.getUid()));
+                token = page.getNextToken();
+            }
+            while (token != null);
+
+            Assertions.assertEquals(6, uids.size());
+            Assertions.assertEquals(records.stream().map(SimpleRecord::getUid).collect(Collectors.toSet()), Set.copyOf(uids));
+        }
+        finally {
+            mongoStore.setCompactEncoding(false);
+        }
+    }
+
+    @Test
+    void testRecordCache()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+        var cache = new RecordCache<SimpleRecord>(1, Duration.ofMinutes(1));
+
+        try {
+            mongoStore.setRecordCache(cache);
+
+            var r1 = provideRecord();
+            var r2 = provideRecord().setAge(12L);
+            this.store.put(List.of(r1, r2));
+
+            Assertions.assertEquals("Meuh", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals("Meuh", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals(1, cache.getHits());
+            Assertions.assertEquals(1, cache.getMisses());
+
+            /* Callers are handed copies, modifying them doesn't alter the cached version */
+            var cached = this.store.find(r1.getUid());
+            cached.setName("Altered");
+            var hit = this.store.find(r1.getUid());
+
+            Assertions.assertNotSame(cached, hit);
+            Assertions.assertEquals("Meuh", hit.getName());
+            Assertions.assertEquals(r1.getUid(), hit.getUid());
+            Assertions.assertEquals(cached.getId(), hit.getId());
+            Assertions.assertEquals(cached.getHash(), hit.getHash());
+            Assertions.assertEquals(cached.getValidityStart(), hit.getValidityStart());
+            Assertions.assertNull(hit.getValidityEnd());
+            Assertions.assertEquals(3, cache.getHits());
+
+            /* A put through the store invalidates the cached version */
+            r1.setName("Meh");
+            this.store.put(r1);
+
+            Assertions.assertEquals("Meh", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals(2, cache.getMisses());
+
+            /* So does a failed put, as it may have been partially applied */
+            this.store.find(r1.getUid());
+            Assertions.assertThrows(IllegalStateException.class, () -> mongoStore.put(r1, Referential.now(), new SimpleRecordFactory() {
+                @Override
+                public BasicDBObject transcript(SimpleRecord input)
+                {
+                    throw new IllegalStateException("Transcription failure");
+                }
+            }));
+            Assertions.assertEquals("Meh", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals(3, cache.getMisses());
+
+            /* r2 doesn't fit in the cache alongside r1, records come in the order of the uids whichever was cached */
+            var records = this.store.list(List.of(r2.getUid(), r1.getUid(), r2.getUid()));
+
+            Assertions.assertEquals(2, records.size());
+            Assertions.assertEquals(r2.getUid(), records.get(0).getUid());
+            Assertions.assertEquals(r1.getUid(), records.get(1).getUid());
+            Assertions.assertEquals(1, cache.size());
+            Assertions.assertEquals(1, cache.getEvictions());
+        }
+        finally {
+            mongoStore.setRecordCache(null);
+        }
+    }
+
+    @Test
+    void testHistoryCache()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+        var cache = new HistoryCache<SimpleRecord>(100);
+        var d6 = daysAgo(6);
+        var d5 = daysAgo(5);
+        var d4 = daysAgo(4);
+        var d3 = daysAgo(3);
+        var d1 = daysAgo(1);
+
+        try {
+            mongoStore.setHistoryCache(cache);
+
+            var r1 = provideRecord();
+            this.store.put(r1, Referential.at(d6));
+            this.store.put(provideRecord(r1.getUid()).setName("Meh"), Referential.at(d3));
+
+            Assertions.assertEquals("Meuh", this.store.find(r1.getUid(), Referential.at(d5)).getName());
+            var cached = this.store.find(r1.getUid(), Referential.at(d5));
+            Assertions.assertEquals("Meuh", cached.getName());
+            Assertions.assertEquals(1, cache.getHits());
+            Assertions.assertEquals(1, cache.size());
+
+            /* Callers are handed copies, modifying them doesn't alter the cached version */
+            cached.setName("Altered");
+            cached.setValidityEnd(d6);
+            var hit = this.store.find(r1.getUid(), Referential.at(d5));
+
+            Assertions.assertNotSame(cached, hit);
+            Assertions.assertEquals("Meuh", hit.getName());
+            Assertions.assertEquals(d3, hit.getValidityEnd());
+            Assertions.assertEquals(cached.getId(), hit.getId());
+            Assertions.assertEquals(cached.getHash(), hit.getHash());
+
+            /* A put starting after the end of the cached version doesn't affect it */
+            this.store.put(provideRecord(r1.getUid()).setName("Mah"), Referential.at(d1));
+            this.store.find(r1.getUid(), Referential.at(d5));
+
+            Assertions.assertEquals(3, cache.getHits());
+
+            /* A put starting before its end truncates it */
+            this.store.put(provideRecord(r1.getUid()).setName("Moh"), Referential.at(d4));
+            var dbR1 = this.store.find(r1.getUid(), Referential.at(d5));
+
+            Assertions.assertEquals(3, cache.getHits());
+            Assertions.assertEquals(d4, dbR1.getValidityEnd());
+        }
+        finally {
+            mongoStore.setHistoryCache(null);
+        }
+    }
+
+    @Test
+    void testBatchingRecordLoader()
+    {
+        var executor = Executors.newScheduledThreadPool(2);
+
+        try {
+            var loader = new BatchingRecordLoader<>(this.store, Duration.ofMillis(20), 2, executor);
+
+            var r1 = provideRecord();
+            var r2 = provideRecord().setAge(12L);
+            var r3 = provideRecord().setAge(20L);
+            this.store.put(List.of(r1, r2, r3));
+
+            /* r1 and r2 fill a batch, r3 and the unknown uid are dispatched once the window has elapsed */
+            var f1 = loader.load(r1.getUid());
+            var f2 = loader.load(r2.getUid());
+            var f3 = loader.load(r3.getUid());
+            var f4 = loader.load("unknown");
+
+            Assertions.assertEquals(17L, f1.join().getAge());
+            Assertions.assertEquals(12L, f2.join().getAge());
+            Assertions.assertEquals(20L, f3.join().getAge());
+            Assertions.assertNull(f4.join());
+            Assertions.assertEquals(17L, loader.find(r1.getUid(), Referential.now()).getAge());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFindAsOf()
+    {
+        var d6 = daysAgo(6);
+        var d4 = daysAgo(4);
+        var d3 = daysAgo(3);
+
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+        this.store.put(List.of(r1, r2), Referential.at(d6));
+        this.store.put(provideRecord(r1.getUid()).setName("Meh"), Referential.at(d3));
+
+        var records = this.store.findAsOf(Map.of(
+            r1.getUid(), d4,
+            r2.getUid(), d4,
+            "unknown", d4
+        ));
+
+        Assertions.assertEquals(2, records.size());
+        Assertions.assertEquals("Meuh", records.get(r1.getUid()).getName());
+        Assertions.assertEquals(12L, records.get(r2.getUid()).getAge());
+        Assertions.assertEquals("Meh", this.store.findAsOf(Map.of(r1.getUid(), Instant.now())).get(r1.getUid()).getName());
+        Assertions.assertTrue(this.store.findAsOf(Map.of(r1.getUid(), daysAgo(7))).isEmpty());
+    }
+
+    @Test
+    void testTimeline()
+    {
+        var d6 = daysAgo(6);
+        var d3 = daysAgo(3);
+
+        var r1 = provideRecord();
+        var r2 = provideRecord().setAge(12L);
+        this.store.put(List.of(r1, r2), Referential.at(d6));
+        this.store.put(provideRecord(r1.getUid()).setName("Meh"), Referential.at(d3));
+
+        var timeline = this.store.timeline(r1.getUid());
+
+        Assertions.assertEquals(2, timeline.size());
+        Assertions.assertEquals(d6, timeline.get(0).getStart());
+        Assertions.assertEquals(d3, timeline.get(0).getEnd());
+        Assertions.assertEquals(d3, timeline.get(1).getStart());
+        Assertions.assertTrue(timeline.get(1).isOpen());
+        Assertions.assertEquals("Meuh", timeline.get(0).load().getName());
+        Assertions.assertEquals("Meh", timeline.get(1).load().getName());
+        Assertions.assertEquals(timeline.get(1).getHash(), timeline.get(1).load().getHash());
+
+        var timelines = this.store.timelines(List.of(r1.getUid(), r2.getUid(), "unknown"));
+
+        Assertions.assertEquals(2, timelines.size());
+        Assertions.assertEquals(1, timelines.get(r2.getUid()).size());
+        Assertions.assertTrue(this.store.timeline("unknown").isEmpty());
+    }
+
+    @Test
+    void testChanges()
+    {
+        var d6 = daysAgo(6);
+        var d5 = daysAgo(5);
+        var d3 = daysAgo(3);
+        var d2 = daysAgo(2);
+        var d1 = daysAgo(1);
+
+        /* r1 is modified, r2 is created, r3 is closed and r4 is left untouched within [d5, d1] */
+        var r1 = provideRecord();
+        var r3 = provideRecord().setAge(20L);
+        var r4 = provideRecord().setAge(30L);
+        this.store.put(List.of(r1, r4), Referential.at(d6));
+        this.store.put(r3, Referential.between(d6, d2));
+        this.store.put(provideRecord(r1.getUid()).setName("Meh"), Referential.at(d3));
+        var r2 = provideRecord().setAge(12L);
+        this.store.put(r2, Referential.at(d3));
+
+        Map<String, Change> changes;
+        try (var stream = this.store.changes(d5, d1)) {
+            changes = stream.collect(Collectors.toMap(Change::getUid, change -> change));
+        }
+
+        Assertions.assertEquals(3, changes.size());
+        Assertions.assertEquals(Change.Kind.MODIFIED, changes.get(r1.getUid()).getKind());
+        Assertions.assertNotEquals(changes.get(r1.getUid()).getOldHash(), changes.get(r1.getUid()).getNewHash());
+        Assertions.assertEquals(Change.Kind.CREATED, changes.get(r2.getUid()).getKind());
+        Assertions.assertNull(changes.get(r2.getUid()).getOldHash());
+        Assertions.assertEquals(Change.Kind.CLOSED, changes.get(r3.getUid()).getKind());
+        Assertions.assertNull(changes.get(r3.getUid()).getNewHash());
+
+        try (var stream = this.store.changes(d2, d1)) {
+            Assertions.assertEquals(0, stream.count());
+        }
+    }
+
+    @Test
+    void testRecordCodec()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var r1 = provideRecord();
+        this.store.put(r1, Referential.at(daysAgo(2)));
+        r1.setName("Meh");
+        this.store.put(r1);
+        this.store.put(provideRecord().setAge(12L));
+
+        var expected = this.store.find(r1.getUid(), Referential.at(daysAgo(1)));
+
+        try {
+            mongoStore.setRecordCodec(new SimpleRecordCodec());
+
+            var decoded = this.store.find(r1.getUid(), Referential.at(daysAgo(1)));
+
+            Assertions.assertEquals(expected.getId(), decoded.getId());
+            Assertions.assertEquals(expected.getUid(), decoded.getUid());
+            Assertions.assertEquals(expected.getHash(), decoded.getHash());
+            Assertions.assertEquals(expected.getValidityStart(), decoded.getValidityStart());
+            Assertions.assertEquals(expected.getValidityEnd(), decoded.getValidityEnd());
+            Assertions.assertEquals("Meuh", decoded.getName());
+            Assertions.assertEquals(17L, decoded.getAge());
+
+            var codec = new RecordDocumentCodec<>(
+                new SimpleRecordCodec(),
+                record -> new SimpleRecordFactory().transcript(record)
+                    .append("uid", record.getUid())
+                    .append("hash", record.getHash())
+                    .append("validity_start", record.getValidityStart())
+                    .append("validity_end", record.getValidityEnd()),
+                MongoClientSettings.getDefaultCodecRegistry().get(BasicDBObject.class)
+            );
+            var document = new BsonDocument();
+            codec.encode(new BsonDocumentWriter(document), decoded, EncoderContext.builder().build());
+            var reencoded = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+            Assertions.assertEquals(decoded.getUid(), reencoded.getUid());
+            Assertions.assertEquals(decoded.getHash(), reencoded.getHash());
+            Assertions.assertEquals(decoded.getValidityStart(), reencoded.getValidityStart());
+            Assertions.assertEquals(decoded.getValidityEnd(), reencoded.getValidityEnd());
+            Assertions.assertEquals("Meuh", reencoded.getName());
+            Assertions.assertEquals(17L, reencoded.getAge());
+
+            Assertions.assertEquals("Meh", this.store.find(r1.getUid()).getName());
+            Assertions.assertEquals(2, this.store.list(new Query(), Referential.now()).size());
+            try (var stream = this.store.stream(new Query(), Referential.any())) {
+                Assertions.assertEquals(3, stream.count());
+            }
+        }
+        finally {
+            mongoStore.setRecordCodec(null);
+        }
+    }
+
+    @Test
+    void testLazyRecords()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var r1 = provideRecord();
+        this.store.put(List.of(r1, provideRecord().setAge(12L)));
+
+        var expected = this.store.find(r1.getUid());
+        var lazy = mongoStore.listLazy(new Query("uid", r1.getUid()), Referential.now());
+
+        Assertions.assertEquals(1, lazy.size());
+        Assertions.assertEquals(expected.getId(), lazy.get(0).getId());
+        Assertions.assertEquals(expected.getHash(), lazy.get(0).getHash());
+        Assertions.assertEquals(expected.getValidityStart(), lazy.get(0).getValidityStart());
+        Assertions.assertFalse(lazy.get(0).isDecoded());
+        Assertions.assertEquals("Meuh", lazy.get(0).get().getName());
+        Assertions.assertEquals(expected.getHash(), lazy.get(0).get().getHash());
+        Assertions.assertTrue(lazy.get(0).isDecoded());
+
+        try {
+            mongoStore.setRecordCodec(new SimpleRecordCodec());
+
+            try (var stream = mongoStore.streamLazy(new Query(), Referential.now())) {
+                Assertions.assertEquals(29L, stream.mapToLong(record -> record.get().getAge()).sum());
+            }
+        }
+        finally {
+            mongoStore.setRecordCodec(null);
+        }
+    }
+
+    @Test
+    void testTemporalIndexes()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        /* SimpleRecord.name is annotated with @TemporalIndex */
+        var usage = mongoStore.indexUsage();
+        Assertions.assertTrue(usage.containsKey("name_1_validity_start_1_validity_end_1"));
+        Assertions.assertTrue(usage.containsKey("_id_"));
+        Assertions.assertFalse(mongoStore.listUnusedIndexes().contains("_id_"));
+    }
+
+    @Test
+    void testIndexBuild()
+    {
+        var mongoStore = (MongoDBSimpleRecordStore) this.store;
+
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            /* Indexes were created during setup, so there is nothing left to build */
+            var build = mongoStore.buildIndexes(executor);
+            Assertions.assertTrue(build.isDone());
+            Assertions.assertEquals(0, build.getTotal());
+            Assertions.assertEquals(0, build.getBuilt());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void testRemove()
     {
@@ -0,0 +1,6 @@
+package com.lumiomedical.record.store;
+
+import com.lumiomedical.record.store.model.SourcedRecord;
+
+public interface SourcedRecordStore extends RecordStore<SourcedRecord>
+{}
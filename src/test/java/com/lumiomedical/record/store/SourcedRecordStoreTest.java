@@ -0,0 +1,242 @@
+package com.lumiomedical.record.store;
+
+import com.lumiomedical.record.Referential;
+import com.lumiomedical.record.source.AbstractSource;
+import com.lumiomedical.record.source.Sources;
+import com.lumiomedical.record.store.model.SourcedRecord;
+import com.lumiomedical.record.store.mongodb.MongoDBSourcedRecordStore;
+import com.lumiomedical.record.store.mongodb.SourceResolver;
+import com.lumiomedical.record.store.mongodb.TestHelper;
+import com.lumiomedical.record.store.mongodb.factory.SourcedRecordFactory;
+import com.mongodb.BasicDBObject;
+import com.noleme.commons.time.TimeHelper;
+import com.noleme.mongodb.MongoDBClientException;
+import com.noleme.store.query.Query;
+import org.junit.jupiter.api.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class SourcedRecordStoreTest
+{
+    private SourcedRecordStore store;
+
+    @BeforeAll
+    void setup() throws MongoDBClientException
+    {
+        this.store = new MongoDBSourcedRecordStore(TestHelper.provideClient(), new SourcedRecordFactory());
+        ((MongoDBSourcedRecordStore) this.store).createIndexes();
+    }
+
+    @BeforeEach
+    void clear()
+    {
+        this.store.remove(new Query());
+    }
+
+    @Test
+    void testSourceResolverLoad()
+    {
+        var mongoStore = (MongoDBSourcedRecordStore) this.store;
+
+        var r1 = provideRecord("a", 1L);
+        var r2 = provideRecord("b", 2L);
+        this.store.put(List.of(r1, r2));
+
+        /* The "c" version is closed by the "d" one, "e" only existed within a past segment and "f" only starts in the future */
+        var r3 = provideRecord("c", 3L);
+        this.store.put(r3, Referential.at(daysAgo(10)));
+        this.store.put(r3.setSourceId(Sources.Sourced.MRN, "d"), Referential.at(daysAgo(5)));
+        this.store.put(provideRecord("e", 5L), Referential.between(daysAgo(20), daysAgo(15)));
+        this.store.put(provideRecord("f", 6L), Referential.at(Instant.now().plus(3, ChronoUnit.DAYS)));
+
+        var byMrn = new SourceResolver<>(mongoStore, Sources.Sourced.MRN).load();
+        var byAccount = new SourceResolver<>(mongoStore, Sources.Sourced.ACCOUNT).load();
+
+        try {
+            Assertions.assertEquals(3, byMrn.size());
+            Assertions.assertEquals(r1.getUid(), byMrn.resolve("a"));
+            Assertions.assertEquals(r2.getUid(), byMrn.resolve("b"));
+            Assertions.assertNull(byMrn.resolve("c"));
+            Assertions.assertEquals(r3.getUid(), byMrn.resolve("d"));
+            Assertions.assertNull(byMrn.resolve("e"));
+            Assertions.assertNull(byMrn.resolve("f"));
+            Assertions.assertEquals(Map.of("a", r1.getUid(), "d", r3.getUid()), byMrn.resolve(List.of("a", "d", "unknown")));
+
+            Assertions.assertEquals(3, byAccount.size());
+            Assertions.assertEquals(r2.getUid(), byAccount.resolve(2L));
+            Assertions.assertEquals(r3.getUid(), byAccount.resolve(3L));
+            Assertions.assertNull(byAccount.resolve(5L));
+        }
+        finally {
+            byMrn.close();
+            byAccount.close();
+        }
+    }
+
+    @Test
+    void testSourceResolverUpdates()
+    {
+        var mongoStore = (MongoDBSourcedRecordStore) this.store;
+        var failing = new SourcedRecordFactory() {
+            @Override
+            public BasicDBObject transcript(SourcedRecord input)
+            {
+                throw new IllegalStateException("Transcription failure");
+            }
+        };
+
+        var r1 = provideRecord("a", 1L);
+        this.store.put(r1);
+
+        var resolver = new SourceResolver<>(mongoStore, Sources.Sourced.MRN).load();
+
+        try {
+            /* Committed puts are applied */
+            var r2 = provideRecord("b", 2L);
+            this.store.put(r2);
+            Assertions.assertEquals(r2.getUid(), resolver.resolve("b"));
+
+            this.store.put(r1.setSourceId(Sources.Sourced.MRN, "c"));
+            Assertions.assertEquals(r1.getUid(), resolver.resolve("c"));
+
+            /* Puts starting in the future don't produce a current version */
+            this.store.put(provideRecord("g", 7L), Referential.at(Instant.now().plus(3, ChronoUnit.DAYS)));
+            Assertions.assertNull(resolver.resolve("g"));
+
+            /* Failed puts aren't */
+            Assertions.assertThrows(IllegalStateException.class, () -> mongoStore.put(provideRecord("d", 4L), Referential.now(), failing));
+            Assertions.assertNull(resolver.resolve("d"));
+
+            try {
+                mongoStore.setChunkSize(1);
+
+                var report = mongoStore.putChunked(List.of(provideRecord("e", 5L)), Referential.now(), failing);
+                Assertions.assertEquals(1, report.getFailures().size());
+                Assertions.assertNull(resolver.resolve("e"));
+            }
+            finally {
+                mongoStore.setChunkSize(0);
+            }
+        }
+        finally {
+            resolver.close();
+        }
+
+        /* Once closed, the resolver isn't kept up to date anymore */
+        this.store.put(provideRecord("f", 6L));
+        Assertions.assertNull(resolver.resolve("f"));
+    }
+
+    @Test
+    void testMapUidBySourceIdsChunked()
+    {
+        var mongoStore = (MongoDBSourcedRecordStore) this.store;
+        var chunkSize = mongoStore.getSourceChunkSize();
+        var executor = Executors.newFixedThreadPool(2);
+
+        var r1 = provideRecord("a", 1L);
+        var r2 = provideRecord("b", 2L);
+        var r3 = provideRecord("c", 3L);
+        var r4 = provideRecord("d", 4L);
+        var r5 = provideRecord("e", 5L);
+        this.store.put(List.of(r1, r2, r3, r4, r5));
+
+        /* Duplicates are dropped before chunking, otherwise "a" and "e" would each span two chunks */
+        var ids = List.of("a", "b", "a", "c", "d", "unknown", "e", "e");
+        var expected = Map.of(
+            "a", r1.getUid(),
+            "b", r2.getUid(),
+            "c", r3.getUid(),
+            "d", r4.getUid(),
+            "e", r5.getUid()
+        );
+
+        try {
+            mongoStore.setSourceChunkSize(2);
+
+            Assertions.assertEquals(expected, this.store.mapUidBySourceIds(Sources.Sourced.MRN, ids));
+            Assertions.assertTrue(this.store.mapUidBySourceIds(Sources.Sourced.MRN, List.of()).isEmpty());
+
+            mongoStore.setSourceExecutor(executor);
+
+            Assertions.assertEquals(expected, this.store.mapUidBySourceIds(Sources.Sourced.MRN, ids));
+            Assertions.assertEquals(
+                Map.of(2L, r2.getUid(), 3L, r3.getUid(), 5L, r5.getUid()),
+                this.store.mapUidBySourceIds(Sources.Sourced.ACCOUNT, List.of(5L, 2L, 3L, 2L, 6L))
+            );
+        }
+        finally {
+            mongoStore.setSourceExecutor(null);
+            mongoStore.setSourceChunkSize(chunkSize);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testMapUidBySources()
+    {
+        var mongoStore = (MongoDBSourcedRecordStore) this.store;
+        var chunkSize = mongoStore.getSourceChunkSize();
+        var executor = Executors.newFixedThreadPool(2);
+
+        var r1 = provideRecord("a", 1L).setSourceId(Sources.Sourced.ALIASES, Set.of("x", "y"));
+        var r2 = provideRecord("b", 2L).setSourceId(Sources.Sourced.ALIASES, Set.of("z"));
+        var r3 = provideRecord("c", 3L);
+        this.store.put(List.of(r1, r2, r3));
+
+        Map<AbstractSource<?, SourcedRecord>, List<?>> ids = Map.of(
+            Sources.Sourced.MRN, List.of("a", "c", "a", "unknown"),
+            Sources.Sourced.ALIASES, List.of("x", "y", "z", "w"),
+            Sources.Sourced.ACCOUNT, List.of()
+        );
+        Map<AbstractSource<?, SourcedRecord>, Map<Object, String>> expected = Map.of(
+            Sources.Sourced.MRN, Map.of("a", r1.getUid(), "c", r3.getUid()),
+            /* Collection sources are regrouped by item, only the requested items are returned */
+            Sources.Sourced.ALIASES, Map.of("x", r1.getUid(), "y", r1.getUid(), "z", r2.getUid()),
+            Sources.Sourced.ACCOUNT, Map.of()
+        );
+
+        Assertions.assertEquals(expected, this.store.mapUidBySources(ids));
+        Assertions.assertEquals(
+            Map.of(Sources.Sourced.ALIASES, Map.of("z", r2.getUid())),
+            this.store.mapUidBySources(Map.of(Sources.Sourced.ALIASES, List.of("z")))
+        );
+        Assertions.assertEquals(
+            Map.of(Sources.Sourced.MRN, Map.of()),
+            this.store.mapUidBySources(Map.of(Sources.Sourced.MRN, List.of()))
+        );
+
+        try {
+            /* Beyond the source chunk size, sources are looked up one by one with chunked aggregations */
+            mongoStore.setSourceChunkSize(2);
+            Assertions.assertEquals(expected, this.store.mapUidBySources(ids));
+
+            mongoStore.setSourceExecutor(executor);
+            Assertions.assertEquals(expected, this.store.mapUidBySources(ids));
+        }
+        finally {
+            mongoStore.setSourceExecutor(null);
+            mongoStore.setSourceChunkSize(chunkSize);
+            executor.shutdown();
+        }
+    }
+
+    private static SourcedRecord provideRecord(String mrn, Long account)
+    {
+        return new SourcedRecord()
+            .setName("Meuh")
+            .setSourceId(Sources.Sourced.MRN, mrn)
+            .setSourceId(Sources.Sourced.ACCOUNT, account);
+    }
+
+    private static Instant daysAgo(long days)
+    {
+        return TimeHelper.inDays(-days).truncatedTo(ChronoUnit.SECONDS);
+    }
+}
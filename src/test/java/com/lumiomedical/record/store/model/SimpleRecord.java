@@ -1,6 +1,7 @@
 package com.lumiomedical.record.store.model;
 
 import com.lumiomedical.record.Record;
+import com.lumiomedical.record.store.index.TemporalIndex;
 
 /**
  * @author Pierre Lecerf (plecerf@lumiomedical.com)
@@ -8,6 +9,7 @@ import com.lumiomedical.record.Record;
  */
 public class SimpleRecord extends Record<SimpleRecord>
 {
+    @TemporalIndex("name")
     private String name;
     private Long age;
     private Boolean trueness;
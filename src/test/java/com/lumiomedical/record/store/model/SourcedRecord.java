@@ -0,0 +1,19 @@
+package com.lumiomedical.record.store.model;
+
+import com.lumiomedical.record.Record;
+
+public class SourcedRecord extends Record<SourcedRecord>
+{
+    private String name;
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public SourcedRecord setName(String name)
+    {
+        this.name = name;
+        return this;
+    }
+}
@@ -0,0 +1,18 @@
+package com.lumiomedical.record.store.model;
+
+import com.lumiomedical.record.source.Source;
+import com.lumiomedical.record.source.SourceCollection;
+import com.lumiomedical.record.source.SourceSet;
+
+public final class SourcedRecordSources implements SourceSet<SourcedRecord>
+{
+    public final Source<String, SourcedRecord> MRN = sourceOf("mrn", String.class);
+    public final Source<Long, SourcedRecord> ACCOUNT = sourceOf("account", Long.class);
+    public final SourceCollection<String, SourcedRecord> ALIASES = sourceCollectionOf("aliases", String.class);
+
+    @Override
+    public Class<SourcedRecord> getSourcedType()
+    {
+        return SourcedRecord.class;
+    }
+}
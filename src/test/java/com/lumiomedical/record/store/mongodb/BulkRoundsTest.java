@@ -0,0 +1,96 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.store.mongodb.factory.SimpleRecordFactory;
+import com.mongodb.BulkWriteException;
+import com.mongodb.DBCollection;
+import com.noleme.mongodb.MongoDBClientException;
+import org.junit.jupiter.api.*;
+
+import java.util.Set;
+
+import static com.lumiomedical.record.store.mongodb.DBObjects.dbObject;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class BulkRoundsTest
+{
+    private DBCollection collection;
+
+    @BeforeAll
+    void setup() throws MongoDBClientException
+    {
+        var store = new MongoDBSimpleRecordStore(TestHelper.provideClient(), new SimpleRecordFactory());
+        this.collection = store.recordCollection().getDB().getCollection("bulk_rounds");
+    }
+
+    @BeforeEach
+    void clear()
+    {
+        this.collection.remove(dbObject());
+    }
+
+    @AfterAll
+    void drop()
+    {
+        this.collection.drop();
+    }
+
+    @Test
+    void testUnorderedRounds()
+    {
+        var rounds = new BulkRounds(this.collection, false);
+
+        /* The second insert of "a" is a duplicate key, it shares its round with the second insert of "b" */
+        rounds.insert("a", dbObject("_id", "a-1"));
+        rounds.insert("a", dbObject("_id", "a-1"));
+        rounds.insert("b", dbObject("_id", "b-1"));
+        rounds.insert("b", dbObject("_id", "b-2"));
+        rounds.insert("c", dbObject("_id", "c-1"));
+
+        var e = Assertions.assertThrows(BulkWriteException.class, rounds::execute);
+
+        Assertions.assertEquals(1, e.getWriteErrors().size());
+        Assertions.assertEquals(1, e.getWriteResult().getInsertedCount());
+        Assertions.assertEquals(4, this.collection.count());
+        Assertions.assertNotNull(this.collection.findOne(dbObject("_id", "b-2")));
+        Assertions.assertEquals(1, rounds.getFailedRound());
+        Assertions.assertTrue(rounds.getIncompleteUids().isEmpty());
+    }
+
+    @Test
+    void testSkippedRounds()
+    {
+        var rounds = new BulkRounds(this.collection, false);
+
+        /* "a" fails in the second round, the third round of "b" is skipped although both of its earlier operations were applied */
+        rounds.insert("a", dbObject("_id", "a-1"));
+        rounds.insert("a", dbObject("_id", "a-1"));
+        rounds.insert("b", dbObject("_id", "b-1"));
+        rounds.insert("b", dbObject("_id", "b-2"));
+        rounds.insert("b", dbObject("_id", "b-3"));
+        rounds.insert("c", dbObject("_id", "c-1"));
+
+        Assertions.assertThrows(BulkWriteException.class, rounds::execute);
+
+        Assertions.assertEquals(1, rounds.getFailedRound());
+        Assertions.assertEquals(Set.of("b"), rounds.getIncompleteUids());
+        Assertions.assertNotNull(this.collection.findOne(dbObject("_id", "b-2")));
+        Assertions.assertNull(this.collection.findOne(dbObject("_id", "b-3")));
+    }
+
+    @Test
+    void testOrderedRounds()
+    {
+        var rounds = new BulkRounds(this.collection, true);
+
+        rounds.insert("a", dbObject("_id", "a-1"));
+        rounds.insert("a", dbObject("_id", "a-1"));
+        rounds.insert("b", dbObject("_id", "b-1"));
+
+        /* A single ordered bulk stops at the first failure */
+        var e = Assertions.assertThrows(BulkWriteException.class, rounds::execute);
+
+        Assertions.assertEquals(1, e.getWriteErrors().size());
+        Assertions.assertEquals(1, this.collection.count());
+        Assertions.assertNull(this.collection.findOne(dbObject("_id", "b-1")));
+    }
+}
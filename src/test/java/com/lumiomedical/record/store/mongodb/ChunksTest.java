@@ -0,0 +1,35 @@
+package com.lumiomedical.record.store.mongodb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Function;
+
+public class ChunksTest
+{
+    @Test
+    void testPartition()
+    {
+        Assertions.assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), Chunks.partition(List.of(1, 2, 3, 4, 5), 2));
+        Assertions.assertEquals(List.of(List.of(1, 2)), Chunks.partition(List.of(1, 2), 2));
+        Assertions.assertTrue(Chunks.partition(List.of(), 2).isEmpty());
+    }
+
+    @Test
+    void testPartitionByUid()
+    {
+        /* Items are keyed by their first letter */
+        var items = List.of("a1", "b1", "a2", "c1", "d1", "d2", "d3", "e1");
+        var chunks = Chunks.partitionByUid(items, item -> item.substring(0, 1), 2);
+
+        /* Items of a uid are never split, and a uid exceeding the chunk size gets a chunk of its own */
+        Assertions.assertEquals(
+            List.of(List.of("a1", "a2"), List.of("b1", "c1"), List.of("d1", "d2", "d3"), List.of("e1")),
+            chunks
+        );
+
+        var single = Chunks.partitionByUid(items, Function.identity(), items.size());
+        Assertions.assertEquals(List.of(items), single);
+    }
+}
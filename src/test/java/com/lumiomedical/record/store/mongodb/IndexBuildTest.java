@@ -0,0 +1,70 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.Referential;
+import com.lumiomedical.record.store.model.SimpleRecord;
+import com.lumiomedical.record.store.mongodb.factory.SimpleRecordFactory;
+import com.noleme.mongodb.MongoDBClientException;
+import com.noleme.store.query.Query;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class IndexBuildTest
+{
+    private MongoDBSimpleRecordStore store;
+
+    @BeforeAll
+    void setup() throws MongoDBClientException
+    {
+        /* A collection of its own, on which no index has been created yet */
+        this.store = new MongoDBSimpleRecordStore(TestHelper.provideClient(), new SimpleRecordFactory()) {
+            @Override
+            protected String getCollectionName()
+            {
+                return "index_build_record";
+            }
+        };
+    }
+
+    @AfterAll
+    void drop()
+    {
+        this.store.recordCollection().drop();
+    }
+
+    @Test
+    void testReadsWhileBuildPending()
+    {
+        /* The build is held back until the queued tasks are run, reads and writes happen while it is pending */
+        List<Runnable> pending = new ArrayList<>();
+        var build = this.store.buildIndexes(pending::add);
+
+        Assertions.assertFalse(build.isDone());
+        Assertions.assertTrue(build.getTotal() > 0);
+        Assertions.assertEquals(0, build.getBuilt());
+
+        var r1 = new SimpleRecord().setName("Meuh").setAge(17L).setTrueness(true);
+        var r2 = new SimpleRecord().setName("Meh").setAge(12L).setTrueness(false);
+        this.store.put(List.of(r1, r2));
+
+        Assertions.assertEquals("Meuh", this.store.find(r1.getUid()).getName());
+        Assertions.assertEquals(1, this.store.putChanged(List.of(r1.setName("Mah"), r2)).getWritten());
+        Assertions.assertEquals(2, this.store.timeline(r1.getUid()).size());
+        Assertions.assertEquals(1, this.store.timelines(List.of(r2.getUid())).get(r2.getUid()).size());
+
+        var page = this.store.page(new Query(), Referential.now(), 1, null);
+        Assertions.assertEquals(1, page.getItems().size());
+        Assertions.assertTrue(page.hasNext());
+        Assertions.assertEquals(1, this.store.page(new Query(), Referential.now(), 1, page.getNextToken()).getItems().size());
+
+        for (Runnable task : pending)
+            task.run();
+        build.await();
+
+        Assertions.assertTrue(build.isDone());
+        Assertions.assertEquals(build.getTotal(), build.getBuilt());
+        Assertions.assertTrue(this.store.buildIndexes(Runnable::run).isDone());
+    }
+}
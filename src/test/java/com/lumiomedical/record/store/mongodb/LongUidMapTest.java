@@ -0,0 +1,69 @@
+package com.lumiomedical.record.store.mongodb;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+public class LongUidMapTest
+{
+    @Test
+    void testPutGet()
+    {
+        var map = new LongUidMap(0);
+        var uuids = new String[10_000];
+
+        for (int i = 0 ; i < uuids.length ; ++i)
+        {
+            uuids[i] = UUID.randomUUID().toString();
+            map.put(i, uuids[i]);
+        }
+
+        Assertions.assertEquals(uuids.length, map.size());
+        for (int i = 0 ; i < uuids.length ; ++i)
+            Assertions.assertEquals(uuids[i], map.get(i));
+        Assertions.assertNull(map.get(-1));
+    }
+
+    @Test
+    void testOverwriteAndOtherUids()
+    {
+        var map = new LongUidMap(4);
+        var uuid = UUID.randomUUID().toString();
+
+        map.put(42, "not-a-uuid");
+        map.put(Long.MIN_VALUE, uuid.toUpperCase());
+        map.put(7, uuid);
+
+        Assertions.assertEquals("not-a-uuid", map.get(42));
+        Assertions.assertEquals(uuid.toUpperCase(), map.get(Long.MIN_VALUE));
+
+        map.put(42, uuid);
+        for (int i = 100 ; i < 200 ; ++i)
+            map.put(i, "uid-" + i);
+
+        Assertions.assertEquals(103, map.size());
+        Assertions.assertEquals(uuid, map.get(42));
+        Assertions.assertEquals(uuid, map.get(7));
+        Assertions.assertEquals("uid-150", map.get(150));
+    }
+
+    @Test
+    void testVerifiedIds()
+    {
+        var map = new LongUidMap(0);
+
+        /* Both ids share the same key, as if their hashes collided */
+        Assertions.assertTrue(map.put(1, "id-a", "uid-a"));
+        Assertions.assertFalse(map.put(1, "id-b", "uid-b"));
+        Assertions.assertTrue(map.put(1, "id-a", "uid-c"));
+        for (int i = 100 ; i < 200 ; ++i)
+            Assertions.assertTrue(map.put(i, "id-" + i, "uid-" + i));
+
+        Assertions.assertEquals(101, map.size());
+        Assertions.assertEquals("uid-c", map.get(1, "id-a"));
+        Assertions.assertNull(map.get(1, "id-b"));
+        Assertions.assertEquals("uid-150", map.get(150, "id-150"));
+        Assertions.assertNull(map.get(150, "id-151"));
+    }
+}
@@ -0,0 +1,26 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.store.SourcedRecordStore;
+import com.lumiomedical.record.store.model.SourcedRecord;
+import com.mongodb.BasicDBObject;
+import com.noleme.mongodb.MongoDBClient;
+import com.noleme.store.factory.Factory;
+
+public class MongoDBSourcedRecordStore extends MongoDBRecordStore<SourcedRecord> implements SourcedRecordStore
+{
+    /**
+     * @param client
+     * @param factory
+     */
+    public MongoDBSourcedRecordStore(MongoDBClient client, Factory<BasicDBObject, SourcedRecord> factory)
+    {
+        super(client, factory);
+        this.setEnabledTransactions(false);
+    }
+
+    @Override
+    protected String getCollectionName()
+    {
+        return "sourced_record";
+    }
+}
@@ -0,0 +1,50 @@
+package com.lumiomedical.record.store.mongodb;
+
+import com.lumiomedical.record.Record;
+import com.lumiomedical.record.store.model.SimpleRecord;
+import com.lumiomedical.record.store.mongodb.factory.SimpleRecordFactory;
+import com.mongodb.BasicDBObject;
+import com.noleme.mongodb.MongoDBClient;
+import com.noleme.mongodb.MongoDBClientException;
+import com.noleme.store.factory.Factory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RecordTypeTest
+{
+    @Test
+    void testRecordType() throws MongoDBClientException
+    {
+        var client = TestHelper.provideClient();
+
+        Assertions.assertEquals(SimpleRecord.class, new MongoDBSimpleRecordStore(client, new SimpleRecordFactory()).getRecordType());
+
+        /* The record type is bound by a subclass of an intermediate generic store */
+        Assertions.assertEquals(SimpleRecord.class, new ConcreteStore(client, new SimpleRecordFactory()).getRecordType());
+
+        /* It remains unbound when the generic store is instantiated directly */
+        Assertions.assertNull(new GenericStore<>(client, new SimpleRecordFactory()).getRecordType());
+    }
+
+    private static class GenericStore<X extends Record<X>> extends MongoDBRecordStore<X>
+    {
+        GenericStore(MongoDBClient client, Factory<BasicDBObject, X> factory)
+        {
+            super(client, factory);
+        }
+
+        @Override
+        protected String getCollectionName()
+        {
+            return "simple_record";
+        }
+    }
+
+    private static class ConcreteStore extends GenericStore<SimpleRecord>
+    {
+        ConcreteStore(MongoDBClient client, Factory<BasicDBObject, SimpleRecord> factory)
+        {
+            super(client, factory);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.lumiomedical.record.store.mongodb.factory;
+
+import com.lumiomedical.record.UidHolder;
+import com.lumiomedical.record.store.model.SimpleRecord;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+public class RecordFactoryTest
+{
+    @Test
+    void testDefaultEncoding()
+    {
+        var factory = new RecordFactory<SimpleRecord>();
+        var uid = UidHolder.generateUid();
+
+        Assertions.assertEquals(uid, factory.encodeUid(uid));
+        Assertions.assertEquals("5f3a", factory.encodeHash("5f3a"));
+    }
+
+    @Test
+    void testCompactUid()
+    {
+        var factory = new RecordFactory<SimpleRecord>().setCompactEncoding(true);
+        var uid = UidHolder.generateUid();
+        var encoded = factory.encodeUid(uid);
+
+        Assertions.assertTrue(encoded instanceof Binary);
+        Assertions.assertEquals(16, ((Binary) encoded).length());
+        Assertions.assertEquals(uid, RecordFactory.decodeUid(encoded));
+        Assertions.assertEquals(uid, RecordFactory.decodeUid(((Binary) encoded).getData()));
+        Assertions.assertEquals(uid, RecordFactory.decodeUid(UUID.fromString(uid)));
+
+        /* Uids that aren't UUID-shaped are left as-is */
+        var composite = UidHolder.generateUid("a", "b");
+        Assertions.assertEquals(composite, factory.encodeUid(composite));
+        Assertions.assertEquals(composite, RecordFactory.decodeUid(composite));
+    }
+
+    @Test
+    void testCompactHash()
+    {
+        var factory = new RecordFactory<SimpleRecord>().setCompactEncoding(true);
+
+        for (String hash : new String[]{ "0", "5f3a", "ffffffffffffffff", "8000000000000000", "0123456789abcdef0123456789abcdef" })
+            Assertions.assertEquals(hash, RecordFactory.decodeHash(factory.encodeHash(hash)));
+
+        Assertions.assertEquals(-1L, factory.encodeHash("ffffffffffffffff"));
+        Assertions.assertTrue(factory.encodeHash("0123456789abcdef0123456789abcdef") instanceof Binary);
+    }
+}
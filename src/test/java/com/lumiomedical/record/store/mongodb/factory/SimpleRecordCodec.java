@@ -0,0 +1,46 @@
+package com.lumiomedical.record.store.mongodb.factory;
+
+import com.lumiomedical.record.store.model.SimpleRecord;
+import com.lumiomedical.record.store.mongodb.codec.RecordCodec;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.DecoderContext;
+
+public class SimpleRecordCodec implements RecordCodec<SimpleRecord>
+{
+    @Override
+    public Class<SimpleRecord> getRecordClass()
+    {
+        return SimpleRecord.class;
+    }
+
+    @Override
+    public SimpleRecord newRecord()
+    {
+        return new SimpleRecord();
+    }
+
+    @Override
+    public void decodeField(String name, BsonReader reader, DecoderContext context, SimpleRecord record)
+    {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return;
+        }
+
+        switch (name)
+        {
+            case "name":
+                record.setName(reader.readString());
+                break;
+            case "age":
+                record.setAge(reader.readInt64());
+                break;
+            case "trueness":
+                record.setTrueness(reader.readBoolean());
+                break;
+            default:
+                reader.skipValue();
+        }
+    }
+}
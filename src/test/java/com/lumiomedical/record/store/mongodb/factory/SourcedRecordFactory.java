@@ -0,0 +1,55 @@
+package com.lumiomedical.record.store.mongodb.factory;
+
+import com.lumiomedical.record.source.AbstractSource;
+import com.lumiomedical.record.source.Sources;
+import com.lumiomedical.record.store.model.SourcedRecord;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.noleme.store.factory.Factory;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+
+public class SourcedRecordFactory implements Factory<BasicDBObject, SourcedRecord>
+{
+    @Override
+    public SourcedRecord build(BasicDBObject input)
+    {
+        SourcedRecord record = new SourcedRecord().setName(input.getString("name"));
+        BasicDBObject sources = (BasicDBObject) input.get("sources");
+
+        if (sources.containsField(Sources.Sourced.MRN.name()))
+            record.setSourceId(Sources.Sourced.MRN, sources.getString(Sources.Sourced.MRN.name()));
+        if (sources.containsField(Sources.Sourced.ACCOUNT.name()))
+            record.setSourceId(Sources.Sourced.ACCOUNT, sources.getLong(Sources.Sourced.ACCOUNT.name()));
+        if (sources.containsField(Sources.Sourced.ALIASES.name())) {
+            for (Object alias : (BasicDBList) sources.get(Sources.Sourced.ALIASES.name()))
+                record.addSourceId(Sources.Sourced.ALIASES, (String) alias);
+        }
+
+        return record;
+    }
+
+    @Override
+    public BasicDBObject transcript(SourcedRecord input)
+    {
+        BasicDBObject sources = new BasicDBObject();
+        for (Map.Entry<AbstractSource, Object> entry : input.getSources().getSources().entrySet())
+        {
+            if (entry.getValue() instanceof Collection) {
+                /* Collection sources are sets, they are sorted so that the hash doesn't depend on iteration order */
+                BasicDBList list = new BasicDBList();
+                list.addAll((Collection<?>) entry.getValue());
+                list.sort(Comparator.comparing(Object::toString));
+                sources.append(entry.getKey().name(), list);
+            }
+            else
+                sources.append(entry.getKey().name(), entry.getValue());
+        }
+
+        return new BasicDBObject()
+            .append("name", input.getName())
+            .append("sources", sources);
+    }
+}
@@ -0,0 +1,120 @@
+package com.lumiomedical.record.store.mongodb.hash;
+
+import com.lumiomedical.record.store.model.ComplexRecord;
+import com.lumiomedical.record.store.model.SimpleRecord;
+import com.lumiomedical.record.store.mongodb.factory.ComplexRecordFactory;
+import com.lumiomedical.record.store.mongodb.factory.SimpleRecordFactory;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import org.bson.BSONObject;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.*;
+
+public class CanonicalHasherTest
+{
+    @Test
+    void testSimpleTranscript()
+    {
+        SimpleRecordFactory factory = new SimpleRecordFactory();
+
+        assertSameEncoding(factory.transcript(new SimpleRecord().setName("abc").setAge(12L).setTrueness(true)));
+        assertSameEncoding(factory.transcript(new SimpleRecord().setName("été ☃ 😀").setAge(null).setTrueness(false)));
+    }
+
+    @Test
+    void testComplexTranscript()
+    {
+        ComplexRecordFactory factory = new ComplexRecordFactory();
+
+        ComplexRecord record = new ComplexRecord()
+            .setName("abc")
+            .setAge(34L)
+            .setBirthDate(Instant.parse("1987-03-12T10:00:00Z"))
+            .setTrueness(true)
+            .setLongValues(1L, 2L, 3L)
+            .setStringValues("x", "y", "z")
+            .addSubitem(new ComplexRecord().setName("sub").setAge(1L).setBirthDate(Instant.EPOCH).setTrueness(false))
+            .addSubitemToSet(new ComplexRecord().setName("set").setAge(2L).setBirthDate(Instant.EPOCH).setTrueness(true))
+            .putMap("b", true)
+            .putMap("a", false);
+
+        assertSameEncoding(factory.transcript(record));
+    }
+
+    @Test
+    void testEdgeCases()
+    {
+        Map<String, Object> map = new HashMap<>();
+        map.put("z", 1);
+        map.put("a", new BasicDBObject("y", 2).append("b", Arrays.asList(3, new BasicDBObject("d", 4).append("c", 5))));
+
+        BasicDBList list = new BasicDBList();
+        list.add(new BasicDBObject("y", 1.5f).append("x", (short) 2));
+
+        BasicDBObject document = new BasicDBObject()
+            .append("null", null)
+            .append("map", map)
+            .append("set", new LinkedHashSet<>(List.of(new BasicDBObject("b", 1).append("a", 2))))
+            .append("list", list)
+            .append("id", new ObjectId())
+            .append("date", new Date(1234L))
+            .append("char", 'c')
+            .append("byte", (byte) 7)
+            .append("empty", new BasicDBObject());
+
+        assertSameEncoding(document);
+    }
+
+    @Test
+    void testFallback()
+    {
+        /* BigDecimal isn't handled by the writer, the whole document goes through the historical implementation */
+        assertSameEncoding(new BasicDBObject("b", new BigDecimal("1.5")).append("a", 1));
+    }
+
+    @Test
+    void testKeyOrder()
+    {
+        RecordHashStrategy hasher = RecordHashStrategy.city();
+
+        Assertions.assertEquals(
+            hasher.hash(new BasicDBObject("a", 1).append("b", new BasicDBObject("c", 2).append("d", 3))),
+            hasher.hash(new BasicDBObject("b", new BasicDBObject("d", 3).append("c", 2)).append("a", 1))
+        );
+        Assertions.assertNotEquals(
+            hasher.hash(new BasicDBObject("a", 1)),
+            hasher.hash(new BasicDBObject("a", 2))
+        );
+    }
+
+    @Test
+    void testStrategies()
+    {
+        var document = new BasicDBObject("a", 1).append("b", "c");
+
+        for (RecordHashStrategy strategy : List.of(RecordHashStrategy.city(), RecordHashStrategy.xx3(), RecordHashStrategy.wy3(), RecordHashStrategy.xx128()))
+        {
+            Assertions.assertSame(strategy, RecordHashStrategy.forName(strategy.name()));
+            Assertions.assertEquals(strategy.hash(document), strategy.hash(new BasicDBObject("b", "c").append("a", 1)));
+        }
+
+        Assertions.assertEquals(32, RecordHashStrategy.xx128().hash(document).length());
+        Assertions.assertNotEquals(RecordHashStrategy.city().hash(document), RecordHashStrategy.xx3().hash(document));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RecordHashStrategy.forName("md5"));
+    }
+
+    private static void assertSameEncoding(BSONObject document)
+    {
+        CanonicalBsonWriter writer = CanonicalBsonWriter.write(document);
+
+        Assertions.assertArrayEquals(
+            CanonicalBsonWriter.encodeLegacy(document),
+            Arrays.copyOf(writer.buffer(), writer.length())
+        );
+    }
+}
@@ -0,0 +1,159 @@
+package com.lumiomedical.record.store.mongodb.planner;
+
+import com.lumiomedical.record.Referential;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+public class TemporalWritePlannerTest
+{
+    @Test
+    void testInsertNew()
+    {
+        var plan = new TemporalWritePlanner(Collections.emptyList())
+            .put(Referential.at(day(1)), "a", document())
+            .plan();
+
+        Assertions.assertEquals(1, plan.size());
+        Assertions.assertEquals(day(1), plan.getInserts().get(0).getStart());
+        Assertions.assertTrue(plan.getInserts().get(0).isOpen());
+    }
+
+    @Test
+    void testUnchanged()
+    {
+        var v1 = Version.stored(new ObjectId(), "a", day(1), null);
+
+        var plan = new TemporalWritePlanner(List.of(v1))
+            .put(Referential.at(day(5)), "a", document())
+            .plan();
+
+        Assertions.assertTrue(plan.isEmpty());
+    }
+
+    @Test
+    void testTruncate()
+    {
+        var v1 = Version.stored(new ObjectId(), "a", day(1), null);
+
+        var plan = new TemporalWritePlanner(List.of(v1))
+            .put(Referential.at(day(5)), "b", document())
+            .plan();
+
+        Assertions.assertEquals(0, plan.getDeletes().size());
+        Assertions.assertEquals(1, plan.getUpdates().size());
+        Assertions.assertEquals(1, plan.getInserts().size());
+        Assertions.assertEquals(day(5), plan.getUpdates().get(0).getEnd());
+        Assertions.assertFalse(plan.getUpdates().get(0).hasStartChanged());
+        Assertions.assertEquals(day(5), plan.getInserts().get(0).getStart());
+    }
+
+    @Test
+    void testFullOverlapRemoval()
+    {
+        var v1 = Version.stored(new ObjectId(), "a", day(1), day(5));
+        var v2 = Version.stored(new ObjectId(), "b", day(5), day(8));
+        var v3 = Version.stored(new ObjectId(), "a", day(8), null);
+
+        /* Inserting "a" at day 3 removes everything from day 3 onward that isn't "a", and reopens the first "a" */
+        var planner = new TemporalWritePlanner(List.of(v1, v2, v3))
+            .put(Referential.at(day(3)), "a", document());
+        var plan = planner.plan();
+
+        Assertions.assertEquals(List.of(v2.getId()), plan.getDeletes());
+        Assertions.assertEquals(0, plan.getInserts().size());
+        Assertions.assertEquals(1, plan.getUpdates().size());
+        Assertions.assertEquals(v1.getId(), plan.getUpdates().get(0).getId());
+        Assertions.assertTrue(plan.getUpdates().get(0).isOpen());
+
+        /* v3 is left as-is, just like the server-side operations would */
+        Assertions.assertEquals(List.of(v1, v3), planner.timeline());
+    }
+
+    @Test
+    void testBetweenEarlyPreservedLateRemoved()
+    {
+        var v1 = Version.stored(new ObjectId(), "a", day(1), day(10));
+        var v2 = Version.stored(new ObjectId(), "a", day(10), null);
+
+        var planner = new TemporalWritePlanner(List.of(v1, v2))
+            .put(Referential.between(day(4), day(6)), "b", document());
+        var plan = planner.plan();
+        var timeline = planner.timeline();
+
+        Assertions.assertEquals(0, plan.getDeletes().size());
+        Assertions.assertEquals(List.of(v1), plan.getUpdates());
+        Assertions.assertEquals(1, plan.getInserts().size());
+
+        Assertions.assertEquals(3, timeline.size());
+        Assertions.assertEquals(day(4), timeline.get(0).getEnd());
+        Assertions.assertEquals(day(4), timeline.get(1).getStart());
+        Assertions.assertEquals(day(6), timeline.get(1).getEnd());
+        Assertions.assertEquals(day(10), timeline.get(2).getStart());
+        Assertions.assertTrue(timeline.get(2).isOpen());
+    }
+
+    @Test
+    void testBetweenIgnoresOpenVersions()
+    {
+        var v1 = Version.stored(new ObjectId(), "a", day(1), null);
+
+        var planner = new TemporalWritePlanner(List.of(v1))
+            .put(Referential.between(day(4), day(6)), "b", document());
+        var plan = planner.plan();
+
+        Assertions.assertEquals(0, plan.getDeletes().size());
+        Assertions.assertEquals(0, plan.getUpdates().size());
+        Assertions.assertEquals(1, plan.getInserts().size());
+    }
+
+    @Test
+    void testBackfill()
+    {
+        var v1 = Version.stored(new ObjectId(), "a", day(1), null);
+
+        /* Several versions for the same uid, out of order, are merged in memory and only their outcome is written */
+        var planner = new TemporalWritePlanner(List.of(v1))
+            .put(Referential.at(day(9)), "c", document())
+            .put(Referential.at(day(5)), "b", document())
+            .put(Referential.at(day(7)), "c", document());
+        var plan = planner.plan();
+        var timeline = planner.timeline();
+
+        /* "b" at day 5 removes the first "c", the second "c" truncates "b" */
+        Assertions.assertEquals(0, plan.getDeletes().size());
+        Assertions.assertEquals(List.of(v1), plan.getUpdates());
+        Assertions.assertEquals(2, plan.getInserts().size());
+
+        Assertions.assertEquals(3, timeline.size());
+        Assertions.assertEquals(day(5), timeline.get(0).getEnd());
+        Assertions.assertEquals("b", timeline.get(1).getHash());
+        Assertions.assertEquals(day(7), timeline.get(1).getEnd());
+        Assertions.assertEquals("c", timeline.get(2).getHash());
+        Assertions.assertEquals(day(7), timeline.get(2).getStart());
+        Assertions.assertTrue(timeline.get(2).isOpen());
+    }
+
+    @Test
+    void testAny()
+    {
+        var planner = new TemporalWritePlanner(Collections.emptyList());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> planner.put(Referential.any(), "a", document()));
+    }
+
+    private static BasicDBObject document()
+    {
+        return new BasicDBObject("name", "Meuh");
+    }
+
+    private static Instant day(int day)
+    {
+        return Instant.parse("2020-01-01T00:00:00Z").plusSeconds(day * 86400L);
+    }
+}